@@ -1,11 +1,16 @@
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.font.FontRenderContext;
 import java.awt.font.GlyphVector;
 import java.awt.geom.GeneralPath;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.*;
 
 public class App {
-    private static Image pacmanMenuImage = new ImageIcon(App.class.getResource("./pacmanRight.png")).getImage();
+    private static final int MENU_ICON_SIZE = 96;
     // helper to draw a simple Pac-Man icon (angle in degrees for mouth)
     private static void drawPacman(Graphics2D g2, int x, int y, int size, int angle) {
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
@@ -73,12 +78,84 @@ public class App {
         g2.draw(outline);
     }
 
+    // The menu screen behind the START button; atlas is null while the sprites are still loading
+    private static void paintMenuArtwork(Graphics2D g2, int w, int h, SpriteAtlas atlas) {
+        // subtle gradient background
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setPaint(new GradientPaint(0, 0, new Color(8, 8, 30), w, h, new Color(0, 0, 0)));
+        g2.fillRect(0, 0, w, h);
+
+        // Title center
+        String logo = "PAC-MAN";
+        Font logoFont = new Font("Arial", Font.BOLD, 64);
+        g2.setFont(logoFont);
+        FontMetrics fm = g2.getFontMetrics();
+        int tx = (w - fm.stringWidth(logo)) / 2;
+        int ty = h / 4;
+
+        // Title rendering with stroked GlyphVector, gradient fill and glow outline
+        FontRenderContext frc = g2.getFontRenderContext();
+        GlyphVector gv = logoFont.createGlyphVector(frc, logo);
+        Shape textShape = gv.getOutline(tx, ty);
+
+        // glow: stroke the shape multiple times with increasing width and alpha
+        g2.setColor(new Color(255, 230, 80, 48));
+        for (int i = 12; i >= 4; i -= 2) {
+            g2.setStroke(new BasicStroke(i, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2.draw(textShape);
+        }
+
+        // fill  title with golden gradient
+        Rectangle bounds = textShape.getBounds();
+        GradientPaint textGP = new GradientPaint(bounds.x, bounds.y, new Color(255, 250, 180), bounds.x, bounds.y + bounds.height, new Color(255, 180, 40));
+        g2.setPaint(textGP);
+        g2.fill(textShape);
+
+        // outline
+        g2.setColor(new Color(120, 60, 0));
+        g2.setStroke(new BasicStroke(3f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2.draw(textShape);
+
+        // Draw a highlighted Pac-Man image to the left of the title and remove ghosts
+        int iconSize = MENU_ICON_SIZE;
+        int imgX = tx - iconSize - 32;
+        int imgY = ty - iconSize/2;
+        // halo
+        RadialGradientPaint rgp = new RadialGradientPaint(new Point(imgX + iconSize/2, imgY + iconSize/2), iconSize, new float[]{0f, 1f}, new Color[]{new Color(255,220,80,180), new Color(0,0,0,0)});
+        g2.setPaint(rgp);
+        g2.fillOval(imgX - 10, imgY - 10, iconSize + 20, iconSize + 20);
+        // pacman image centered, once the asset loader has it
+        if (atlas != null) {
+            g2.drawImage(atlas.menuPacman, imgX, imgY, null);
+        }
+
+        // subtitle
+        String subtitle = "Classic Arcade Maze";
+        Font subFont = new Font("Arial", Font.ITALIC, 20);
+        g2.setFont(subFont);
+        fm = g2.getFontMetrics();
+        int sx = (w - fm.stringWidth(subtitle)) / 2;
+        g2.setColor(new Color(220, 220, 220, 200));
+        g2.drawString(subtitle, sx, ty + 56);
+
+        // small footer hint
+        String footer = "Use arrow keys to move — Eat all the dots!";
+        Font f2 = new Font("Arial", Font.PLAIN, 14);
+        g2.setFont(f2);
+        fm = g2.getFontMetrics();
+        int fx = (w - fm.stringWidth(footer)) / 2;
+        g2.setColor(new Color(180, 180, 180, 160));
+        g2.drawString(footer, fx, h - 40);
+    }
+
     public static void main(String[] args) throws Exception {
-        int rowCount = 21;
-        int columnCount = 19;
-        int tileSize = 32;
-        int boardWidth = columnCount * tileSize;
-        int boardHeight = rowCount * tileSize;
+        // -Dpacman.map=<file> plays a map file written by GameMap instead of the built-in maze
+        String mapPath = System.getProperty("pacman.map");
+        GameEngine engine = mapPath == null ? new GameEngine() : new GameEngine(GameMap.load(mapPath), new Random().nextLong());
+        // decode and scale every sprite in the background while the menu is up
+        CompletableFuture<SpriteAtlas> assets = SpriteAtlas.loadAsync(null, engine.tileSize, MENU_ICON_SIZE);
+        int boardWidth = GameRenderer.viewWidth(engine);
+        int boardHeight = GameRenderer.viewHeight(engine);
 
         JFrame frame = new JFrame("Pac Man");
         frame.setSize(boardWidth, boardHeight);
@@ -88,78 +165,26 @@ public class App {
 
         // Enhanced menu panel with banner and styled Start button + characters
         JPanel menuPanel = new JPanel() {
+            //the artwork behind the button is static, so it is drawn once into an image and each repaint
+            //(the button repaints on every hover and press) is a single blit
+            private BufferedImage artwork;
+            private boolean artworkHasIcon;
+
             @Override
             protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                Graphics2D g2 = (Graphics2D) g.create();
                 int w = getWidth();
                 int h = getHeight();
-                // subtle gradient background
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.setPaint(new GradientPaint(0, 0, new Color(8, 8, 30), w, h, new Color(0, 0, 0)));
-                g2.fillRect(0, 0, w, h);
-
-                // Title center
-                String logo = "PAC-MAN";
-                Font logoFont = new Font("Arial", Font.BOLD, 64);
-                g2.setFont(logoFont);
-                FontMetrics fm = g2.getFontMetrics();
-                int tx = (w - fm.stringWidth(logo)) / 2;
-                int ty = h / 4;
-
-                // Title rendering with stroked GlyphVector, gradient fill and glow outline
-                FontRenderContext frc = g2.getFontRenderContext();
-                GlyphVector gv = logoFont.createGlyphVector(frc, logo);
-                Shape textShape = gv.getOutline(tx, ty);
-
-                // glow: stroke the shape multiple times with increasing width and alpha
-                g2.setColor(new Color(255, 230, 80, 48));
-                for (int i = 12; i >= 4; i -= 2) {
-                    g2.setStroke(new BasicStroke(i, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                    g2.draw(textShape);
+                if (w <= 0 || h <= 0) return;
+                //redrawn only after a resize, or once the asset loader delivers the pacman icon
+                SpriteAtlas atlas = assets.isDone() && !assets.isCompletedExceptionally() ? assets.join() : null;
+                if (artwork == null || artwork.getWidth() != w || artwork.getHeight() != h || artworkHasIcon != (atlas != null)) {
+                    artwork = SpriteAtlas.compatibleImage(getGraphicsConfiguration(), w, h, Transparency.OPAQUE);
+                    Graphics2D g2 = artwork.createGraphics();
+                    paintMenuArtwork(g2, w, h, atlas);
+                    g2.dispose();
+                    artworkHasIcon = atlas != null;
                 }
-
-                // fill  title with golden gradient
-                Rectangle bounds = textShape.getBounds();
-                GradientPaint textGP = new GradientPaint(bounds.x, bounds.y, new Color(255, 250, 180), bounds.x, bounds.y + bounds.height, new Color(255, 180, 40));
-                g2.setPaint(textGP);
-                g2.fill(textShape);
-
-                // outline
-                g2.setColor(new Color(120, 60, 0));
-                g2.setStroke(new BasicStroke(3f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                g2.draw(textShape);
-
-                // Draw a highlighted Pac-Man image to the left of the title and remove ghosts
-                int iconSize = 96;
-                int imgX = tx - iconSize - 32;
-                int imgY = ty - iconSize/2;
-                // halo
-                RadialGradientPaint rgp = new RadialGradientPaint(new Point(imgX + iconSize/2, imgY + iconSize/2), iconSize, new float[]{0f, 1f}, new Color[]{new Color(255,220,80,180), new Color(0,0,0,0)});
-                g2.setPaint(rgp);
-                g2.fillOval(imgX - 10, imgY - 10, iconSize + 20, iconSize + 20);
-                // pacman image centered
-                g2.drawImage(pacmanMenuImage, imgX, imgY, iconSize, iconSize, null);
-
-                // subtitle
-                String subtitle = "Classic Arcade Maze";
-                Font subFont = new Font("Arial", Font.ITALIC, 20);
-                g2.setFont(subFont);
-                fm = g2.getFontMetrics();
-                int sx = (w - fm.stringWidth(subtitle)) / 2;
-                g2.setColor(new Color(220, 220, 220, 200));
-                g2.drawString(subtitle, sx, ty + 56);
-
-                // small footer hint
-                String footer = "Use arrow keys to move — Eat all the dots!";
-                Font f2 = new Font("Arial", Font.PLAIN, 14);
-                g2.setFont(f2);
-                fm = g2.getFontMetrics();
-                int fx = (w - fm.stringWidth(footer)) / 2;
-                g2.setColor(new Color(180, 180, 180, 160));
-                g2.drawString(footer, fx, h - 40);
-
-                g2.dispose();
+                g.drawImage(artwork, 0, 0, null);
             }
         };
         //layout to position the start button nicely in center
@@ -245,12 +270,75 @@ public class App {
         frame.setContentPane(menuPanel);
         frame.pack();
         frame.setVisible(true);
-
+        assets.thenRun(() -> SwingUtilities.invokeLater(menuPanel::repaint));
+
+        // -Dpacman.renderer=canvas switches to the actively rendered GameCanvas,
+        // tuned with -Dpacman.fps=<cap, 0 = uncapped> and -Dpacman.vsync=true
+        boolean activeRendering = "canvas".equals(System.getProperty("pacman.renderer"));
+        // -Dpacman.record=<file> records the session for ReplayPlayer; the file is finished when the window closes
+        String recordPath = System.getProperty("pacman.record");
+        // -Dpacman.overlay=true starts with the frame pacing overlay on (F3 toggles it); the numbers are also
+        // published over JMX as PacMan:type=GameMetrics and printed when the window closes
+        boolean showMetrics = Boolean.getBoolean("pacman.overlay");
+        // -Dpacman.autopilot=true lets Autopilot play (a soak test); its playouts/s and scores are printed
+        // when the window closes
+        boolean autopilot = Boolean.getBoolean("pacman.autopilot");
         startButton.addActionListener(e -> {
-            PacMan pacmanGame = new PacMan();
+            SpriteAtlas atlas = assets.join(); //normally long done by the time START is clicked
+            if (recordPath != null) {
+                engine.recorder = new ReplayRecorder(recordPath, engine);
+            }
+            Autopilot pilot = autopilot ? new Autopilot() : null;
+            if (activeRendering) {
+                GameCanvas canvas = new GameCanvas(engine, atlas);
+                canvas.renderer.showMetrics = showMetrics;
+                canvas.autopilot = pilot;
+                canvas.metrics.register();
+                frame.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent we) {
+                        canvas.stop();
+                        endSession(engine, canvas.metrics, pilot);
+                    }
+                });
+                canvas.fpsCap = Integer.getInteger("pacman.fps", 0);
+                canvas.vsync = Boolean.getBoolean("pacman.vsync");
+                JPanel holder = new JPanel(new BorderLayout());
+                holder.add(canvas, BorderLayout.CENTER);
+                frame.setContentPane(holder);
+                frame.pack();
+                canvas.start();
+                canvas.requestFocusInWindow();
+                return;
+            }
+            PacMan pacmanGame = new PacMan(engine, atlas);
+            pacmanGame.renderer.showMetrics = showMetrics;
+            pacmanGame.autopilot = pilot;
+            pacmanGame.metrics.register();
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent we) {
+                    pacmanGame.stop();
+                    endSession(engine, pacmanGame.metrics, pilot);
+                }
+            });
             frame.setContentPane(pacmanGame);
             frame.pack();
             pacmanGame.requestFocusInWindow();
         });
     }
+
+    // Called with the game loop stopped: finishes the recording, if any, and reports the session's frame pacing
+    // and the autopilot's numbers (autopilot may be null)
+    private static void endSession(GameEngine engine, GameMetrics metrics, Autopilot autopilot) {
+        if (engine.recorder != null) {
+            engine.recorder.close(engine);
+        }
+        metrics.unregister();
+        System.err.print(metrics.summary());
+        if (autopilot != null) {
+            autopilot.close();
+            System.err.println(autopilot.summary());
+        }
+    }
 }
\ No newline at end of file
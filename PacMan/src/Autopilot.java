@@ -0,0 +1,389 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Plays pacman by itself, for soak tests and as a throughput benchmark of the simulation. Whenever pacman
+// stands on a tile where it can choose a way, decide() runs a Monte Carlo tree search for budgetNanos.
+// Pacman's moves between those junctions are forced, so an edge of the tree is a direction taken at one
+// junction and followed to the next. Every thread owns a fork of the game and its own tree: it restores
+// the fork from the live game, walks down its tree picking directions by UCB1, adds a node and finishes
+// with a random playout up to horizonTicks ahead, scoring pellets eaten minus a penalty per life lost
+// and per tile between where the playout ends and the nearest pellet (so it heads for pellets out of reach).
+// The ghosts are re-simulated on every walk, so each node averages over their random choices (open loop).
+// The trees are combined at the root by visit count.
+//
+// In the game, -Dpacman.autopilot=true (see App) drives pacman with it instead of the arrow keys.
+// Usage: java Autopilot [games=5] [budgetMillis=5] [threads=<cores>] [maxTicks=20000] [seed=1]
+public class Autopilot {
+    static final int MAX_NODES = 1 << 15; //per thread; a full tree keeps searching without growing
+    static final int DEATH_PENALTY = 500; //points a lost life is worth, against 10 per pellet
+    static final int DISTANCE_PENALTY = 2; //points per tile from the playout's end to the nearest pellet
+    static final double REWARD_SCALE = 200; //brings a typical playout's reward near 0..1 for UCB1
+    static final double EXPLORATION = 0.7;
+
+    long budgetNanos = 5_000_000L;
+    int horizonTicks = 64;
+    final int threads;
+
+    private final Searcher[] searchers;
+    private final ExecutorService pool; //runs searchers 1.. while the calling thread runs searcher 0
+    private final Future<?>[] running;
+
+    //tiles to the nearest pellet from every tile, as of the current decision (read by all searchers)
+    private short[] pelletDistance = new short[0];
+    private int[] queue = new int[0];
+
+    //totals since this autopilot was created
+    long decisions = 0;
+    long playouts = 0;
+    long searchNanos = 0;
+    int gamesPlayed = 0;
+    long totalScore = 0;
+    int bestScore = 0;
+
+    Autopilot() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    Autopilot(int threads) {
+        this.threads = Math.max(1, threads);
+        searchers = new Searcher[this.threads];
+        for (int i = 0; i < this.threads; i++) {
+            searchers[i] = new Searcher(0x9E3779B97F4A7C15L * (i + 1));
+        }
+        running = new Future<?>[this.threads];
+        pool = this.threads == 1 ? null : Executors.newFixedThreadPool(this.threads - 1, r -> {
+            Thread thread = new Thread(r, "Autopilot search");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) {
+        int games = 5;
+        long budgetMillis = 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxTicks = 20000;
+        long seed = 1;
+        for (String arg : args) {
+            if (arg.startsWith("games=")) games = Integer.parseInt(arg.substring(6));
+            else if (arg.startsWith("budgetMillis=")) budgetMillis = Long.parseLong(arg.substring(13));
+            else if (arg.startsWith("threads=")) threads = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("maxTicks=")) maxTicks = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("seed=")) seed = Long.parseLong(arg.substring(5));
+        }
+        Autopilot autopilot = new Autopilot(threads);
+        autopilot.budgetNanos = budgetMillis * 1_000_000L;
+        for (int g = 0; g < games; g++) {
+            GameEngine engine = new GameEngine(seed + g);
+            long playouts = autopilot.playouts;
+            long searchNanos = autopilot.searchNanos;
+            while (!engine.gameOver && engine.tick < maxTicks) {
+                engine.step(autopilot.decide(engine));
+            }
+            autopilot.gameEnded(engine);
+            System.out.printf("game %d: score %d in %d ticks (%s), %.0f playouts/s%n", g + 1, engine.score, engine.tick,
+                    engine.gameOver ? "game over" : "tick cap", (autopilot.playouts - playouts) / ((autopilot.searchNanos - searchNanos) / 1e9));
+        }
+        autopilot.close();
+        System.out.println(autopilot.summary());
+    }
+
+    // The input for the coming tick: a direction chosen by search at a junction, otherwise 0 (keep going)
+    char decide(GameEngine game) {
+        if (game.gameOver || !atJunction(game)) return 0;
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        updatePelletDistance(game);
+        for (Searcher searcher : searchers) {
+            searcher.prepare(game, deadline);
+        }
+        for (int i = 1; i < threads; i++) {
+            running[i] = pool.submit(searchers[i]);
+        }
+        searchers[0].run();
+        for (int i = 1; i < threads; i++) {
+            try {
+                running[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("search failed", e.getCause());
+            }
+        }
+
+        int best = -1;
+        long bestVisits = 0;
+        for (int d = 0; d < 4; d++) {
+            long visits = 0;
+            for (Searcher searcher : searchers) {
+                visits += searcher.rootVisits(d);
+            }
+            if (visits > bestVisits) {
+                best = d;
+                bestVisits = visits;
+            }
+        }
+        for (Searcher searcher : searchers) {
+            playouts += searcher.playouts;
+        }
+        decisions++;
+        searchNanos += System.nanoTime() - start;
+        return best < 0 ? 0 : inputFor(game, best);
+    }
+
+    void gameEnded(GameEngine game) {
+        gamesPlayed++;
+        totalScore += game.score;
+        bestScore = Math.max(bestScore, game.score);
+    }
+
+    String summary() {
+        return String.format("autopilot: %d games, mean score %.1f, best %d; %d decisions, %.2f ms each, %.0f playouts/s on %d threads",
+                gamesPlayed, gamesPlayed == 0 ? 0.0 : (double) totalScore / gamesPlayed, bestScore, decisions,
+                decisions == 0 ? 0.0 : searchNanos / 1e6 / decisions, searchNanos == 0 ? 0.0 : playouts / (searchNanos / 1e9), threads);
+    }
+
+    void close() {
+        if (pool != null) pool.shutdownNow();
+    }
+
+    // Breadth first search outwards from every pellet at once, over the open tiles
+    private void updatePelletDistance(GameEngine game) {
+        int tileCount = game.rowCount * game.columnCount;
+        if (pelletDistance.length != tileCount) {
+            pelletDistance = new short[tileCount];
+            queue = new int[tileCount];
+        }
+        Arrays.fill(pelletDistance, GameEngine.UNREACHABLE);
+        int tail = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            if ((game.foodBits[tile >> 6] & (1L << tile)) != 0) {
+                pelletDistance[tile] = 0;
+                queue[tail++] = tile;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int tile = queue[head];
+            int r = tile / game.columnCount;
+            int c = tile - r*game.columnCount;
+            short next = (short) Math.min(GameEngine.UNREACHABLE, pelletDistance[tile] + 1);
+            int exits = game.exitMask[tile];
+            for (int d = 0; d < 4; d++) {
+                if ((exits & (1 << d)) == 0) continue;
+                int nr = r + EntityStore.DY[d];
+                int nc = c + EntityStore.DX[d];
+                if (nr < 0 || nr >= game.rowCount || nc < 0 || nc >= game.columnCount) continue;
+                int neighbour = nr*game.columnCount + nc;
+                if (pelletDistance[neighbour] <= next) continue;
+                pelletDistance[neighbour] = next;
+                queue[tail++] = neighbour;
+            }
+        }
+    }
+
+    // Tiles from pacman to the nearest pellet (counted from the map's edge when pacman is off the board)
+    private int distanceToPellet(GameEngine game) {
+        int row = Math.floorDiv(game.pacman.y + game.pacman.height/2, game.tileSize);
+        int col = Math.floorDiv(game.pacman.x + game.pacman.width/2, game.tileSize);
+        int outside = Math.max(0, Math.max(-row, row - game.rowCount + 1)) + Math.max(0, Math.max(-col, col - game.columnCount + 1));
+        row = Math.max(0, Math.min(game.rowCount - 1, row));
+        col = Math.max(0, Math.min(game.columnCount - 1, col));
+        int distance = pelletDistance[row*game.columnCount + col];
+        return distance == GameEngine.UNREACHABLE ? 0 : distance + outside; //no pellets reachable: nothing to aim for
+    }
+
+    // Pacman stands exactly on a tile and has more to choose than carrying straight on
+    static boolean atJunction(GameEngine game) {
+        GameEngine.Block pacman = game.pacman;
+        if (pacman.x % game.tileSize != 0 || pacman.y % game.tileSize != 0) return false;
+        int forward = SnapshotEncoder.directionIndex(pacman.direction);
+        int choices = openDirections(game) & ~(1 << GameEngine.OPPOSITE[forward]);
+        return choices != (1 << forward) || (pacman.velocityX == 0 && pacman.velocityY == 0);
+    }
+
+    // Exit mask of pacman's tile without the ways off the board: the side tunnels lead into open space where
+    // no ghost ever follows, which a search would otherwise happily escape into for good
+    static int openDirections(GameEngine game) {
+        GameEngine.Block pacman = game.pacman;
+        int exits = game.exitMaskAt(pacman.x, pacman.y);
+        int row = Math.floorDiv(pacman.y, game.tileSize);
+        int col = Math.floorDiv(pacman.x, game.tileSize);
+        int onBoard = 0;
+        for (int d = 0; d < 4; d++) {
+            int r = row + EntityStore.DY[d];
+            int c = col + EntityStore.DX[d];
+            if (r >= 0 && r < game.rowCount && c >= 0 && c < game.columnCount) onBoard |= 1 << d;
+        }
+        return (exits & onBoard) != 0 ? exits & onBoard : exits; //already off the board: any way back
+    }
+
+    // Input that makes pacman head direction d. Only a change of direction is sent, since step() moves
+    // pacman an extra step on every input.
+    static char inputFor(GameEngine game, int d) {
+        GameEngine.Block pacman = game.pacman;
+        char direction = game.directions[d];
+        if (direction == pacman.direction && (pacman.velocityX != 0 || pacman.velocityY != 0)) return 0;
+        return direction;
+    }
+
+    // One thread's search: a fork of the game and a tree kept in flat arrays, reused for every decision
+    class Searcher implements Runnable {
+        private GameEngine live;
+        private GameEngine sim;
+        private long deadline;
+        private long rng;
+        long playouts;
+
+        //node n's children, one per direction, are firstChild[n] + 0..3; -1 while n is not expanded
+        private final int[] firstChild = new int[MAX_NODES];
+        private final int[] visits = new int[MAX_NODES];
+        private final double[] value = new double[MAX_NODES];
+        private final boolean[] legal = new boolean[MAX_NODES];
+        private int nodeCount;
+        private final int[] path = new int[MAX_NODES];
+
+        Searcher(long seed) {
+            rng = seed;
+        }
+
+        void prepare(GameEngine game, long deadline) {
+            if (sim == null || live != game) {
+                sim = game.fork(); //once per game engine; afterwards only copyFrom()
+                live = game;
+            }
+            this.deadline = deadline;
+            playouts = 0;
+            nodeCount = 1;
+            firstChild[0] = -1;
+            visits[0] = 0;
+            value[0] = 0;
+        }
+
+        long rootVisits(int d) {
+            int child = firstChild[0];
+            return child < 0 || !legal[child + d] ? 0 : visits[child + d];
+        }
+
+        @Override
+        public void run() {
+            //a playout takes tens of microseconds, so checking the clock after each one costs nothing
+            do {
+                iterate();
+            } while (System.nanoTime() < deadline);
+        }
+
+        // Selection, expansion, playout and backup from the live game's current state
+        private void iterate() {
+            sim.copyFrom(live);
+            int startScore = sim.score;
+            int startLives = sim.lives;
+            int endTick = sim.tick + horizonTicks;
+            int node = 0;
+            int depth = 0;
+            path[depth++] = node;
+            boolean alive = true;
+            while (alive && sim.tick < endTick) {
+                if (firstChild[node] < 0) {
+                    if (!expand(node)) break; //tree full: play on from here
+                    int d = randomChoice(firstChild[node]);
+                    node = firstChild[node] + d;
+                    path[depth++] = node;
+                    alive = advance(d);
+                    break;
+                }
+                int d = select(node);
+                node = firstChild[node] + d;
+                path[depth++] = node;
+                alive = advance(d);
+            }
+            //random playout from the new node until the horizon
+            while (alive && sim.tick < endTick) {
+                alive = advance(randomChoice(-1));
+            }
+            int points = sim.score - startScore - DEATH_PENALTY * (startLives - sim.lives) - DISTANCE_PENALTY * distanceToPellet(sim);
+            double reward = points / REWARD_SCALE;
+            for (int i = 0; i < depth; i++) {
+                visits[path[i]]++;
+                value[path[i]] += reward;
+            }
+            playouts++;
+        }
+
+        // Adds node's children, marking the directions open at pacman's tile; false when the tree is full
+        private boolean expand(int node) {
+            if (nodeCount + 4 > MAX_NODES) return false;
+            int child = nodeCount;
+            nodeCount += 4;
+            int exits = openDirections(sim);
+            for (int d = 0; d < 4; d++) {
+                firstChild[child + d] = -1;
+                visits[child + d] = 0;
+                value[child + d] = 0;
+                legal[child + d] = (exits & (1 << d)) != 0;
+            }
+            firstChild[node] = child;
+            return true;
+        }
+
+        // UCB1 over the open directions, trying each once first
+        private int select(int node) {
+            int child = firstChild[node];
+            double logVisits = Math.log(Math.max(1, visits[node]));
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int d = 0; d < 4; d++) {
+                if (!legal[child + d]) continue;
+                int n = visits[child + d];
+                if (n == 0) return d;
+                double score = value[child + d] / n + EXPLORATION * Math.sqrt(logVisits / n);
+                if (score > bestScore) {
+                    best = d;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+
+        // A random open direction at pacman's tile, avoiding turning back unless it is a dead end. With
+        // children >= 0, only directions whose child has not been visited yet are picked while there are any.
+        private int randomChoice(int children) {
+            GameEngine.Block pacman = sim.pacman;
+            int exits = openDirections(sim);
+            int forward = exits & ~(1 << GameEngine.OPPOSITE[SnapshotEncoder.directionIndex(pacman.direction)]);
+            int mask = forward != 0 ? forward : exits;
+            if (children >= 0) {
+                int untried = 0;
+                for (int d = 0; d < 4; d++) {
+                    if (legal[children + d] && visits[children + d] == 0) untried |= 1 << d;
+                }
+                if (untried != 0) mask = untried;
+            }
+            if (mask == 0) return SnapshotEncoder.directionIndex(pacman.direction); //boxed in: stand still
+            rng ^= rng << 13;
+            rng ^= rng >>> 7;
+            rng ^= rng << 17;
+            int n = (int) ((rng >>> 33) % Integer.bitCount(mask));
+            while (n-- > 0) {
+                mask &= mask - 1;
+            }
+            return Integer.numberOfTrailingZeros(mask);
+        }
+
+        // Heads direction d and steps until pacman reaches the next junction; false if a life was lost or
+        // the level ended on the way, which ends the walk
+        private boolean advance(int d) {
+            int lives = sim.lives;
+            int mapVersion = sim.mapVersion;
+            sim.step(inputFor(sim, d));
+            for (int i = 0; i < 4 * sim.columnCount + 4 * sim.rowCount; i++) {
+                if (sim.lives != lives || sim.gameOver || sim.mapVersion != mapVersion) return false;
+                if (atJunction(sim)) return true;
+                sim.step((char) 0);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Runs many independent headless games in parallel and prints aggregate stats.
+// Usage: java BatchSimulator [games] [threads] [maxTicks] [baseSeed]
+public class BatchSimulator {
+    int games = 1000;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int maxTicks = 20000; //a game that is still running after this many ticks is cut off
+    long baseSeed = System.nanoTime();
+
+    //per game results, indexed by game number so workers never share a slot
+    int[] scores;
+    int[] ticks;
+    int[] livesLost;
+
+    public static void main(String[] args) throws Exception {
+        BatchSimulator sim = new BatchSimulator();
+        if (args.length > 0) sim.games = Integer.parseInt(args[0]);
+        if (args.length > 1) sim.threads = Integer.parseInt(args[1]);
+        if (args.length > 2) sim.maxTicks = Integer.parseInt(args[2]);
+        if (args.length > 3) sim.baseSeed = Long.parseLong(args[3]);
+        if (sim.games < 1 || sim.threads < 1) {
+            System.err.println("usage: java BatchSimulator [games >= 1] [threads >= 1] [maxTicks] [baseSeed]");
+            System.exit(2);
+        }
+        sim.run();
+    }
+
+    public void run() throws Exception {
+        scores = new int[games];
+        ticks = new int[games];
+        livesLost = new int[games];
+
+        //one seed per game, derived up front so results do not depend on scheduling
+        long[] seeds = new long[games];
+        Random seedSource = new Random(baseSeed);
+        for (int i = 0; i < games; i++) {
+            seeds[i] = seedSource.nextLong();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            pool.submit(() -> IntStream.range(0, games).parallel().forEach(i -> playGame(i, seeds[i]))).get();
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        report(elapsed);
+    }
+
+    // Plays one game with a random pacman that picks a new direction every few ticks
+    void playGame(int index, long seed) {
+        GameEngine engine = new GameEngine(seed);
+        Random input = new Random(~seed); //pacman's own stream, so ghost behaviour stays tied to the seed alone
+        int tick = 0;
+        int nextTurn = 0;
+        while (!engine.gameOver && tick < maxTicks) {
+            char direction = 0;
+            if (tick == nextTurn) {
+                direction = engine.directions[input.nextInt(4)];
+                nextTurn = tick + 1 + input.nextInt(16);
+            }
+            engine.step(direction);
+            tick++;
+        }
+        scores[index] = engine.score;
+        ticks[index] = tick;
+        livesLost[index] = 3 - engine.lives;
+    }
+
+    void report(long elapsedNanos) {
+        long totalTicks = 0;
+        long totalLivesLost = 0;
+        long totalScore = 0;
+        int finished = 0;
+        for (int i = 0; i < games; i++) {
+            totalTicks += ticks[i];
+            totalLivesLost += livesLost[i];
+            totalScore += scores[i];
+            if (ticks[i] < maxTicks) finished++;
+        }
+        double seconds = elapsedNanos / 1e9;
+        double ticksPerSec = totalTicks / seconds;
+
+        int[] sortedScores = scores.clone();
+        Arrays.sort(sortedScores);
+        int[] sortedTicks = ticks.clone();
+        Arrays.sort(sortedTicks);
+
+        System.out.printf("games: %d (%d game over, %d hit the %d tick cap), seed %d%n",
+                games, finished, games - finished, maxTicks, baseSeed);
+        System.out.printf("threads: %d, wall time: %.2f s%n", threads, seconds);
+        System.out.printf("score: mean %.1f  min %d  p10 %d  p50 %d  p90 %d  p99 %d  max %d%n",
+                (double) totalScore / games, sortedScores[0], percentile(sortedScores, 10), percentile(sortedScores, 50),
+                percentile(sortedScores, 90), percentile(sortedScores, 99), sortedScores[games - 1]);
+        System.out.printf("ticks survived: mean %.1f  p50 %d  p90 %d  max %d%n",
+                (double) totalTicks / games, percentile(sortedTicks, 50), percentile(sortedTicks, 90), sortedTicks[games - 1]);
+        System.out.printf("lives lost: mean %.2f  total %d%n", (double) totalLivesLost / games, totalLivesLost);
+        System.out.printf("throughput: %.0f ticks/s total, %.0f ticks/s per core%n", ticksPerSec, ticksPerSec / threads);
+    }
+
+    static int percentile(int[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,264 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+// Micro benchmarks for the tick, map loading and rendering, run with fixed warmup and measurement rounds
+// so numbers can be compared before and after a change. Runs headless (-Djava.awt.headless=true works).
+//
+// Usage: java Bench [move|loadMap|copy|draw|all] [ghosts=4,16,64] [scale=1,2,4] [rounds=5] [roundMillis=1000]
+//   ghosts: number of ghosts placed on the map
+//   scale:  the built-in 21x19 maze is tiled scale x scale times
+//
+//        java Bench alloc
+//   allocation regression check: exits with status 1 if a steady-state tick or frame allocates
+//
+//        java Bench fork
+//   fork determinism check: exits with status 1 if a fork or copyFrom() copy plays out differently from
+//   the game it was taken from
+public class Bench {
+    int[] ghostCounts = {4, 16, 64};
+    int[] scales = {1, 2, 4};
+    int warmupRounds = 3;
+    int rounds = 5;
+    long roundMillis = 1000;
+
+    static volatile long sink; //results are folded in here so the JIT cannot drop the measured work
+
+    interface Op {
+        void run();
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("alloc")) {
+            System.exit(checkAllocations() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("fork")) {
+            System.exit(checkForks() ? 0 : 1);
+        }
+
+        Bench bench = new Bench();
+        String which = "all";
+        for (String arg : args) {
+            if (arg.startsWith("ghosts=")) bench.ghostCounts = parseList(arg.substring(7));
+            else if (arg.startsWith("scale=")) bench.scales = parseList(arg.substring(6));
+            else if (arg.startsWith("rounds=")) bench.rounds = Integer.parseInt(arg.substring(7));
+            else if (arg.startsWith("roundMillis=")) bench.roundMillis = Long.parseLong(arg.substring(12));
+            else which = arg;
+        }
+
+        System.out.printf("%-8s %7s %9s %14s %12s %14s%n", "bench", "ghosts", "map", "ns/op", "+-", "ops/s");
+        for (int scale : bench.scales) {
+            for (int ghosts : bench.ghostCounts) {
+                String[] map = GameMap.scaledRows(scale, ghosts);
+                if (which.equals("all") || which.equals("move")) bench.benchMove(map, ghosts);
+                if (which.equals("all") || which.equals("loadMap")) bench.benchLoadMap(map, ghosts);
+                if (which.equals("all") || which.equals("copy")) bench.benchCopy(map, ghosts);
+                if (which.equals("all") || which.equals("draw")) bench.benchDraw(map, ghosts);
+            }
+        }
+    }
+
+    void benchMove(String[] map, int ghosts) {
+        GameEngine engine = new GameEngine(map, 1);
+        measure("move", map, ghosts, () -> {
+            if (engine.gameOver) engine.restart();
+            engine.move();
+            sink += engine.score;
+        });
+    }
+
+    void benchLoadMap(String[] map, int ghosts) {
+        GameEngine engine = new GameEngine(map, 1);
+        measure("loadMap", map, ghosts, () -> {
+            engine.loadMap();
+            sink += engine.foodRemaining;
+        });
+    }
+
+    // Restoring a snapshot of a game in progress, as a look-ahead search does before every rollout
+    void benchCopy(String[] map, int ghosts) {
+        GameEngine engine = new GameEngine(map, 1);
+        for (int i = 0; i < 200; i++) {
+            engine.step(engine.directions[i / 20 % 4]);
+        }
+        GameEngine scratch = engine.fork();
+        measure("copy", map, ghosts, () -> {
+            scratch.copyFrom(engine);
+            sink += scratch.foodRemaining;
+        });
+    }
+
+    void benchDraw(String[] map, int ghosts) {
+        GameEngine engine = new GameEngine(map, 1);
+        PacMan panel = new PacMan(engine); //never shown, so its simulation thread does not run: the benchmark drives the engine
+        BufferedImage target = new BufferedImage(panel.renderer.viewWidth, panel.renderer.viewHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        measure("draw", map, ghosts, () -> {
+            if (engine.gameOver) engine.restart();
+            engine.move();
+            panel.publish();
+            panel.draw(g);
+            sink += target.getRGB(0, 0);
+        });
+        g.dispose();
+    }
+
+    // Runs op in timed rounds after a warmup and prints mean time per op with its standard deviation
+    void measure(String name, String[] map, int ghosts, Op op) {
+        for (int i = 0; i < warmupRounds; i++) {
+            runRound(op);
+        }
+        double[] nanosPerOp = new double[rounds];
+        for (int i = 0; i < rounds; i++) {
+            nanosPerOp[i] = runRound(op);
+        }
+        double mean = 0;
+        for (double v : nanosPerOp) mean += v;
+        mean /= rounds;
+        double variance = 0;
+        for (double v : nanosPerOp) variance += (v - mean) * (v - mean);
+        double stddev = rounds > 1 ? Math.sqrt(variance / (rounds - 1)) : 0;
+        String size = map.length + "x" + map[0].length();
+        System.out.printf("%-8s %7d %9s %14.1f %12.1f %14.0f%n", name, ghosts, size, mean, stddev, 1e9 / mean);
+    }
+
+    // One round: call op in batches until roundMillis has passed, return nanoseconds per call
+    double runRound(Op op) {
+        long deadline = System.nanoTime() + roundMillis * 1_000_000L;
+        long start = System.nanoTime();
+        long ops = 0;
+        long now;
+        do {
+            for (int i = 0; i < 64; i++) {
+                op.run();
+            }
+            ops += 64;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (double) (now - start) / ops;
+    }
+
+    // Plays and draws a game until everything is JIT-compiled, then measures the bytes allocated by the
+    // current thread over windows of ticks and frames. Windows containing a map reload are skipped since
+    // the renderer rebuilds its chunk cache then. Returns true when nothing was allocated.
+    static boolean checkAllocations() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        GameEngine engine = new GameEngine(1);
+        engine.lives = Integer.MAX_VALUE; //never reach game over, whose restart reloads the map
+        PacMan panel = new PacMan(engine);
+        BufferedImage target = new BufferedImage(panel.renderer.viewWidth, panel.renderer.viewHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+
+        int ticks = 0;
+        for (int i = 0; i < 20_000; i++) {
+            checkStep(engine, panel, g, ticks++);
+        }
+        long empty = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - empty; //cost of the measurement call itself
+
+        long tickBytes = 0;
+        int windows = 0;
+        for (int w = 0; w < 10; w++) {
+            int mapVersion = engine.mapVersion;
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 1000; i++) {
+                checkStep(engine, panel, g, ticks++);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+            if (engine.mapVersion == mapVersion) {
+                tickBytes += allocated;
+                windows++;
+            }
+        }
+
+        //the game over overlay is redrawn every frame by the active renderer, so it must not allocate either
+        engine.gameOver = true;
+        panel.publish();
+        for (int i = 0; i < 10_000; i++) {
+            panel.draw(g);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            panel.draw(g);
+        }
+        long gameOverBytes = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        g.dispose();
+
+        System.out.printf("tick + draw: %d bytes over %d windows of 1000 ticks%n", tickBytes, windows);
+        System.out.printf("game over frame: %d bytes over 1000 frames%n", gameOverBytes);
+        //one small object every hundred ticks would add up to far more than this over the run; the slack is for
+        //a stray few dozen bytes from the JVM itself (e.g. the JIT swapping in new code), not from us
+        boolean ok = windows > 0 && tickBytes < 256 && gameOverBytes < 1000;
+        System.out.println(ok ? "PASS: steady state is allocation-free" : "FAIL: steady state allocates");
+        return ok;
+    }
+
+    // Plays seeded games with the BatchSimulator bot and every 50 ticks, and on every tick pacman is off the
+    // board in a side tunnel, takes a fork() and a copyFrom() into a reused scratch engine (as Autopilot
+    // does). Both are stepped alongside the game with the same input for 8 ticks and must hash the same
+    // on every one. Returns true when they always did.
+    static boolean checkForks() {
+        int copies = 0;
+        int offBoard = 0;
+        int mismatches = 0;
+        GameEngine scratch = new GameEngine(0);
+        for (long seed = 1; seed <= 200; seed++) {
+            GameEngine engine = new GameEngine(seed);
+            Random input = new Random(~seed);
+            GameEngine fork = null;
+            int windowEnd = 0;
+            int nextTurn = 0;
+            for (int tick = 0; tick < 20000 && !engine.gameOver; tick++) {
+                GameEngine.Block pacman = engine.pacman;
+                int col = Math.floorDiv(pacman.x + pacman.width/2, engine.tileSize);
+                boolean outside = col < 0 || col >= engine.columnCount;
+                if (fork == null && (outside || tick % 50 == 0)) {
+                    fork = engine.fork();
+                    scratch.copyFrom(engine);
+                    windowEnd = tick + 8;
+                    copies++;
+                    if (outside) offBoard++;
+                }
+                char direction = 0;
+                if (tick == nextTurn) {
+                    direction = engine.directions[input.nextInt(4)];
+                    nextTurn = tick + 1 + input.nextInt(16);
+                }
+                engine.step(direction);
+                if (fork == null) continue;
+                fork.step(direction);
+                scratch.step(direction);
+                if (fork.stateHash() != engine.stateHash() || scratch.stateHash() != engine.stateHash()) {
+                    mismatches++;
+                    fork = null;
+                } else if (tick + 1 >= windowEnd) {
+                    fork = null;
+                }
+            }
+        }
+        System.out.printf("%d copies (%d with pacman off the board), %d played out differently%n", copies, offBoard, mismatches);
+        boolean ok = copies > 0 && offBoard > 0 && mismatches == 0;
+        System.out.println(ok ? "PASS: copies play out like the original" : "FAIL: copies diverge from the original");
+        return ok;
+    }
+
+    private static void checkStep(GameEngine engine, PacMan panel, Graphics2D g, int tick) {
+        //turn every few ticks so pacman keeps moving and eating
+        char input = tick % 7 == 0 ? engine.directions[(tick / 7) % 4] : 0;
+        engine.step(input);
+        panel.publish();
+        panel.draw(g);
+    }
+
+    static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
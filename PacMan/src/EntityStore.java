@@ -0,0 +1,114 @@
+// Moving entities (the ghosts) kept as parallel primitive arrays instead of one Block object each.
+// An entity's index is stable for as long as its map is loaded, and per-tick loops walk contiguous
+// int arrays, which keeps ghost swarm levels with hundreds of ghosts cache friendly.
+public class EntityStore {
+    //unit step for each direction index, in GameEngine.directions order (U D L R)
+    static final int[] DX = {0, 0, -1, 1};
+    static final int[] DY = {-1, 1, 0, 0};
+
+    int count = 0;
+    int size; //entities are size x size pixel squares
+    int speed; //pixels moved per tick
+
+    int[] x;
+    int[] y;
+    int[] prevX; //position at the start of the current tick
+    int[] prevY;
+    int[] startX;
+    int[] startY;
+    int[] velocityX;
+    int[] velocityY;
+    byte[] direction; //index into GameEngine.directions
+    byte[] sprite; //which sprite to draw, e.g. an index into GameEngine.GHOST_SPRITES
+
+    EntityStore(int size, int speed, int capacity) {
+        this.size = size;
+        this.speed = speed;
+        allocate(Math.max(capacity, 4));
+    }
+
+    private void allocate(int capacity) {
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        prevX = grow(prevX, capacity);
+        prevY = grow(prevY, capacity);
+        startX = grow(startX, capacity);
+        startY = grow(startY, capacity);
+        velocityX = grow(velocityX, capacity);
+        velocityY = grow(velocityY, capacity);
+        direction = grow(direction, capacity);
+        sprite = grow(sprite, capacity);
+    }
+
+    private static int[] grow(int[] old, int capacity) {
+        int[] array = new int[capacity];
+        if (old != null) System.arraycopy(old, 0, array, 0, old.length);
+        return array;
+    }
+
+    private static byte[] grow(byte[] old, int capacity) {
+        byte[] array = new byte[capacity];
+        if (old != null) System.arraycopy(old, 0, array, 0, old.length);
+        return array;
+    }
+
+    // Adds a standing entity facing up and returns its index
+    int add(int spriteId, int x, int y) {
+        if (count == this.x.length) {
+            allocate(count * 2);
+        }
+        int i = count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        prevX[i] = x;
+        prevY[i] = y;
+        startX[i] = x;
+        startY[i] = y;
+        velocityX[i] = 0;
+        velocityY[i] = 0;
+        direction[i] = 0;
+        sprite[i] = (byte) spriteId;
+        return i;
+    }
+
+    // Removes every entity; the arrays are kept for the next map
+    void clear() {
+        count = 0;
+    }
+
+    void setDirection(int i, int dir) {
+        direction[i] = (byte) dir;
+        velocityX[i] = DX[dir] * speed;
+        velocityY[i] = DY[dir] * speed;
+    }
+
+    // Makes this store hold the same entities as other, growing the arrays if needed
+    void copyFrom(EntityStore other) {
+        if (x.length < other.count) {
+            allocate(other.count);
+        }
+        count = other.count;
+        size = other.size;
+        speed = other.speed;
+        System.arraycopy(other.x, 0, x, 0, count);
+        System.arraycopy(other.y, 0, y, 0, count);
+        System.arraycopy(other.prevX, 0, prevX, 0, count);
+        System.arraycopy(other.prevY, 0, prevY, 0, count);
+        System.arraycopy(other.startX, 0, startX, 0, count);
+        System.arraycopy(other.startY, 0, startY, 0, count);
+        System.arraycopy(other.velocityX, 0, velocityX, 0, count);
+        System.arraycopy(other.velocityY, 0, velocityY, 0, count);
+        System.arraycopy(other.direction, 0, direction, 0, count);
+        System.arraycopy(other.sprite, 0, sprite, 0, count);
+    }
+
+    void savePositions() {
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
+    }
+
+    void reset(int i) {
+        x[i] = startX[i];
+        y[i] = startY[i];
+    }
+}
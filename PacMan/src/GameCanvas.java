@@ -0,0 +1,208 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Actively rendered alternative to the PacMan panel. A dedicated loop thread steps the engine at a fixed
+// tick rate and renders through a BufferStrategy as often as it can (or up to fpsCap), interpolating sprite
+// positions between ticks. Slow frames never slow the game down: missed ticks are caught up before the next
+// frame. Enable it from App with -Dpacman.renderer=canvas (see App.main for the fps/vsync options).
+public class GameCanvas extends Canvas implements Runnable, KeyListener {
+    private static final long serialVersionUID = 1L;
+
+    GameEngine engine;
+    GameRenderer renderer;
+    GameMetrics metrics = new GameMetrics();
+
+    long tickNanos = 50_000_000L; //same game speed as the panel's 50 ms Timer: 20 ticks/sec
+    int maxCatchUpTicks = 5; //after a long stall, drop time beyond this many ticks instead of fast-forwarding
+    int fpsCap = 0; //0 = render as fast as possible
+    boolean vsync = false; //try page flipping and pace frames to the display refresh rate
+    Autopilot autopilot; //when set, pacman is played by tree search instead of the keyboard, game after game
+
+    private Thread loopThread;
+    private volatile boolean running = false;
+
+    //directions and PacMan.RESTART from key events on the EDT, drained by the loop thread, which is the only
+    //thread touching the engine
+    private final ConcurrentLinkedQueue<Character> inputs = new ConcurrentLinkedQueue<Character>();
+    private volatile long turnPressNanos; //first press of the held arrow key, for key to turn latency
+    private char heldDirection = 0; //EDT only: arrow key held down, whose repeats are not new presses
+    private boolean turnPending = false; //loop thread only: a key press is waiting for its turn to be taken
+
+    GameCanvas(GameEngine engine, SpriteAtlas atlas) {
+        this.engine = engine;
+        renderer = new GameRenderer(engine, this, atlas);
+        renderer.metrics = metrics;
+        setPreferredSize(new Dimension(renderer.viewWidth, renderer.viewHeight));
+        setBackground(Color.BLACK);
+        setIgnoreRepaint(true); //all painting happens on the loop thread
+        addKeyListener(this);
+        setFocusable(true);
+    }
+
+    // Call once the canvas is showing (BufferStrategy needs a displayable peer)
+    public void start() {
+        createStrategy();
+        if (vsync && fpsCap == 0) {
+            int refresh = getGraphicsConfiguration().getDevice().getDisplayMode().getRefreshRate();
+            if (refresh != DisplayMode.REFRESH_RATE_UNKNOWN) {
+                fpsCap = refresh;
+            }
+        }
+        running = true;
+        loopThread = new Thread(this, "PacMan game loop");
+        loopThread.setDaemon(true);
+        loopThread.start();
+    }
+
+    // Stops the loop and waits for its current tick/frame to finish, so the engine can be used afterwards
+    public void stop() {
+        running = false;
+        if (loopThread != null && loopThread != Thread.currentThread()) {
+            try {
+                loopThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void createStrategy() {
+        if (vsync) {
+            //page flipping is what lets the pipeline wait for vertical blank; not every platform offers it
+            try {
+                BufferCapabilities flip = new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true),
+                        BufferCapabilities.FlipContents.UNDEFINED);
+                createBufferStrategy(2, flip);
+                return;
+            } catch (AWTException e) {
+                //fall back to whatever the platform gives us
+            }
+        }
+        createBufferStrategy(2);
+    }
+
+    @Override
+    public void run() {
+        long frameNanos = fpsCap > 0 ? 1_000_000_000L / fpsCap : 0;
+        long previous = System.nanoTime();
+        long accumulator = 0;
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - previous;
+            previous = now;
+            if (accumulator > maxCatchUpTicks * tickNanos) {
+                accumulator = maxCatchUpTicks * tickNanos;
+            }
+
+            while (accumulator >= tickNanos) {
+                tick();
+                accumulator -= tickNanos;
+            }
+
+            render((float) accumulator / tickNanos);
+
+            if (frameNanos > 0) {
+                long sleep = frameNanos - (System.nanoTime() - now);
+                if (sleep > 0) {
+                    try {
+                        Thread.sleep(sleep / 1_000_000L, (int) (sleep % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        running = false; //so start() can start a new loop thread
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private void tick() {
+        char input = 0;
+        boolean restart = false;
+        for (Character queued = inputs.poll(); queued != null; queued = inputs.poll()) {
+            if (queued == PacMan.RESTART) {
+                restart = true;
+            } else {
+                input = queued; //the engine takes one direction per tick, the newest wins
+            }
+        }
+        if (autopilot != null) {
+            if (engine.gameOver) {
+                autopilot.gameEnded(engine);
+                engine.restart();
+            }
+            input = autopilot.decide(engine); //searched before the tick is timed
+        }
+        else if (restart && engine.gameOver) {
+            engine.restart();
+        }
+        if (input != 0 && autopilot == null) {
+            turnPending = true;
+        }
+        int turnsTaken = engine.turnsTaken;
+        long start = System.nanoTime();
+        engine.step(input);
+        metrics.tick(System.nanoTime() - start);
+        //a turn asked for earlier may only find its opening now, so the image follows the turns taken
+        if (engine.turnsTaken != turnsTaken) {
+            renderer.updatePacmanImage();
+            if (turnPending) {
+                metrics.turn(turnPressNanos, engine.lastTurnTicks);
+                turnPending = false;
+            }
+        }
+    }
+
+    private void render(float alpha) {
+        BufferStrategy strategy = getBufferStrategy();
+        do {
+            do {
+                long start = System.nanoTime();
+                Graphics g = strategy.getDrawGraphics();
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, getWidth(), getHeight());
+                //a game that is over no longer ticks, so draw it exactly where it stopped
+                renderer.draw(g, engine.gameOver ? 1f : alpha);
+                g.dispose();
+                metrics.frame(start, System.nanoTime() - start);
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        if (vsync) {
+            Toolkit.getDefaultToolkit().sync();
+        }
+    }
+
+    @Override
+    public void keyTyped(KeyEvent e) {}
+
+    // Turns are queued as soon as the key goes down; the engine keeps a turn that is blocked and takes it
+    // at the first tile where it fits
+    @Override
+    public void keyPressed(KeyEvent e) {
+        if (autopilot != null) return;
+        char direction = PacMan.directionForKey(e.getKeyCode());
+        if (direction == 0) return;
+        if (direction != heldDirection) {
+            heldDirection = direction;
+            turnPressNanos = System.nanoTime();
+        }
+        inputs.offer(direction);
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        if (e.getKeyCode() == KeyEvent.VK_F3) { //debug overlay with the frame pacing numbers
+            renderer.showMetrics = !renderer.showMetrics;
+            return;
+        }
+        if (PacMan.directionForKey(e.getKeyCode()) == heldDirection) {
+            heldDirection = 0;
+        }
+        inputs.offer(PacMan.RESTART); //ignored by the loop thread unless the game is over
+    }
+}
@@ -0,0 +1,690 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Headless game simulation: no AWT/Swing, stepped explicitly with step(input).
+// PacMan (the Swing panel) drives one of these from its Timer and renders it.
+public class GameEngine {
+    class Block {
+        int x;
+        int y;
+        int width;
+        int height;
+        char sprite; // tile character the block was loaded from (X, b, o, p, r, P, ' ')
+
+        int startX;
+        int startY;
+        int prevX; //position at the start of the current tick
+        int prevY;
+        char direction = 'U'; // U D L R
+        int velocityX = 0;
+        int velocityY = 0;
+
+        Block(char sprite, int x, int y, int width, int height) {
+            this.sprite = sprite;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.startX = x;
+            this.startY = y;
+            this.prevX = x;
+            this.prevY = y;
+        }
+
+        void updateDirection(char direction) {
+            char prevDirection = this.direction;
+            this.direction = direction;
+            updateVelocity();
+            this.x += this.velocityX;
+            this.y += this.velocityY;
+            if (collidesWithWall(this)) {
+                this.x -= this.velocityX;
+                this.y -= this.velocityY;
+                this.direction = prevDirection;
+                updateVelocity();
+            }
+        }
+
+        // Set direction without immediately moving (useful when choosing a new direction at tile centers)
+        void setDirection(char direction) {
+            this.direction = direction;
+            updateVelocity();
+        }
+
+        void updateVelocity() {
+            if (this.direction == 'U') {
+                this.velocityX = 0;
+                this.velocityY = -tileSize/4;
+            }
+            else if (this.direction == 'D') {
+                this.velocityX = 0;
+                this.velocityY = tileSize/4;
+            }
+            else if (this.direction == 'L') {
+                this.velocityX = -tileSize/4;
+                this.velocityY = 0;
+            }
+            else if (this.direction == 'R') {
+                this.velocityX = tileSize/4;
+                this.velocityY = 0;
+            }
+        }
+
+        void savePosition() {
+            this.prevX = this.x;
+            this.prevY = this.y;
+        }
+
+        void copyFrom(Block other) {
+            this.x = other.x;
+            this.y = other.y;
+            this.width = other.width;
+            this.height = other.height;
+            this.sprite = other.sprite;
+            this.startX = other.startX;
+            this.startY = other.startY;
+            this.prevX = other.prevX;
+            this.prevY = other.prevY;
+            this.direction = other.direction;
+            this.velocityX = other.velocityX;
+            this.velocityY = other.velocityY;
+        }
+
+        // Moves the block to a new start position, standing and facing up as if just loaded
+        void respawn(int x, int y) {
+            this.x = x;
+            this.y = y;
+            this.startX = x;
+            this.startY = y;
+            this.prevX = x;
+            this.prevY = y;
+            this.direction = 'U';
+            this.velocityX = 0;
+            this.velocityY = 0;
+        }
+
+        void reset() {
+            this.x = this.startX;
+            this.y = this.startY;
+        }
+    }
+
+    int rowCount;
+    int columnCount;
+    int tileSize = 32;
+    int boardWidth;
+    int boardHeight;
+
+    //X = wall, O = skip, P = pac man, ' ' = food
+    //Ghosts: b = blue, o = orange, p = pink, r = red
+    static final String[] DEFAULT_MAP = {
+        "XXXXXXXXXXXXXXXXXXX",
+        "X        X        X",
+        "X XX XXX X XXX XX X",
+        "X                 X",
+        "X XX X XXXXX X XX X",
+        "X    X       X    X",
+        "XXXX XXXX XXXX XXXX",
+        "OOOX X       X XOOO",
+        "XXXX X XXrXX X XXXX",
+        "O       bpo       O",
+        "XXXX X XXXXX X XXXX",
+        "OOOX X       X XOOO",
+        "XXXX X XXXXX X XXXX",
+        "X        X        X",
+        "X XX XXX X XXX XX X",
+        "X  X     P     X  X",
+        "XX X X XXXXX X X XX",
+        "X    X   X   X    X",
+        "X XXXXXX X XXXXXX X",
+        "X                 X",
+        "XXXXXXXXXXXXXXXXXXX"
+    };
+
+    byte[] tiles; //map character of every tile (row*columnCount + col), never changed after construction
+    //pellets, one bit per tile (index row*columnCount + col); a pellet is a foodSize square foodOffset into its tile
+    long[] foodBits;
+    int foodRemaining;
+    int foodOffset = 14;
+    int foodSize = 4;
+    int[] eatenTiles; //tiles eaten since the last loadMap(), in order, so renderers can update incrementally
+    int eatenCount;
+    int mapVersion = 0; //bumped by every loadMap()
+    EntityStore ghosts; //in map order, so seeded games always visit ghosts in the same order
+    //ghosts by tile as of the start of the ghost phase, for entity queries; made on the first move() after a
+    //loadMap(), so forks that are only restored and drawn never allocate it
+    SpatialGrid ghostGrid;
+    static final String GHOST_SPRITES = "bopr"; //a ghost's sprite id is the index of its map character here
+    Block pacman;
+
+    char[] directions = {'U', 'D', 'L', 'R'}; //up down left right
+    //exit masks use bit i for directions[i]; the opposite of direction i is OPPOSITE[i] (U<->D, L<->R)
+    static final int[] OPPOSITE = {1, 0, 3, 2};
+    byte[] exitMask; //per tile (row*columnCount + col): bit set when the neighbouring tile that way is not a wall
+
+    //flow field: BFS distance in tiles from pacman's tile to every tile, shared by all ghosts and only
+    //recomputed when pacman has moved to another tile since the last ghost decision
+    static final short UNREACHABLE = Short.MAX_VALUE;
+    //the search stops chaseRadius tiles out, so its cost does not grow with the map; ghosts further away wander.
+    //Final because bfsQueue is sized from it, and so every engine (and every copy) searches the same way.
+    final int chaseRadius = 64;
+    short[] pacmanDistance;
+    int flowFieldTile = -1; //tile the flow field was computed from, -1 when stale
+    private int[] bfsQueue; //also the list of tiles the last search set, for clearing them cheaply
+    private int bfsCount;
+    int chasePercent = 75; //chance a ghost at a junction heads towards pacman rather than picking at random
+    GameRandom random;
+    long seed; //every game is seeded, so any game can be recorded and replayed
+    int score = 0;
+    int lives = 3;
+    boolean gameOver = false;
+    int tick = 0; //number of steps taken, not reset by restart()
+
+    //pre-turn buffer: a direction asked for is tried on every tick until pacman can actually take it
+    boolean bufferTurns = true; //false drops a turn that is blocked on its tick, as replays recorded before the buffer expect
+    char queuedTurn = 0; //turn waiting for an opening, 0 for none
+    int queuedTick; //tick the queued turn was first asked for
+    int turnsTaken = 0; //turns that took effect, for input latency measurements
+    int lastTurnTicks; //ticks the last turn took from being asked for to taking effect, 1 = the next tick
+    ReplayRecorder recorder; //when set, receives every input and restart
+
+    GameEngine() {
+        this(DEFAULT_MAP, new Random().nextLong());
+    }
+
+    GameEngine(long seed) {
+        this(DEFAULT_MAP, seed);
+    }
+
+    // Any rectangular map using the DEFAULT_MAP characters, with exactly one 'P'
+    GameEngine(String[] tileMap, long seed) {
+        this(GameMap.fromRows(tileMap), seed);
+    }
+
+    GameEngine(GameMap map, long seed) {
+        this.seed = seed;
+        this.tiles = map.tiles;
+        this.rowCount = map.rows;
+        this.columnCount = map.columns;
+        this.boardWidth = columnCount * tileSize;
+        this.boardHeight = rowCount * tileSize;
+        this.random = new GameRandom(seed);
+        this.ghosts = new EntityStore(tileSize, tileSize/4, 4);
+        loadMap();
+        for (int i = 0; i < ghosts.count; i++) {
+            ghosts.setDirection(i, random.nextInt(4));
+        }
+    }
+
+    // A copy of other that shares its map data (tiles and exit masks never change) but owns all game state,
+    // see fork()
+    private GameEngine(GameEngine other) {
+        this.tiles = other.tiles;
+        this.rowCount = other.rowCount;
+        this.columnCount = other.columnCount;
+        this.tileSize = other.tileSize;
+        this.boardWidth = other.boardWidth;
+        this.boardHeight = other.boardHeight;
+        this.exitMask = other.exitMask;
+        this.random = new GameRandom(0);
+        this.ghosts = new EntityStore(other.ghosts.size, other.ghosts.speed, other.ghosts.count);
+        this.pacman = new Block('P', 0, 0, tileSize, tileSize);
+        this.eatenTiles = new int[other.eatenTiles.length];
+        allocateWorkArrays();
+        copyFrom(other);
+    }
+
+    // A new engine in the same state as this one, which then plays on independently: stepping both with
+    // the same input keeps them identical, random numbers included. Costs an allocation per tile-sized
+    // array; a search forking many times should fork a few scratch engines once and reuse them via copyFrom().
+    public GameEngine fork() {
+        return new GameEngine(this);
+    }
+
+    // Makes this engine's game state identical to other's, which must be on the same map (typically a fork
+    // of it or the engine it was forked from). Copies a few arrays and allocates nothing, so restoring a
+    // snapshot takes well under a microsecond on the default map. The flow field is copied too (only the
+    // tiles its last search set): while pacman is off the board ghosts keep using the field of the tile he
+    // left from, which a copy could not work out again. The recorder is left as it is. Renderers assume
+    // pellets only disappear until the next loadMap(), so an engine being drawn should not be restored to an
+    // earlier point of the same map.
+    public void copyFrom(GameEngine other) {
+        if (other.rowCount != rowCount || other.columnCount != columnCount) {
+            throw new IllegalArgumentException("engines are on different maps");
+        }
+        seed = other.seed;
+        random.copyFrom(other.random);
+        score = other.score;
+        lives = other.lives;
+        gameOver = other.gameOver;
+        tick = other.tick;
+        mapVersion = other.mapVersion;
+        bufferTurns = other.bufferTurns;
+        queuedTurn = other.queuedTurn;
+        queuedTick = other.queuedTick;
+        turnsTaken = other.turnsTaken;
+        lastTurnTicks = other.lastTurnTicks;
+        chasePercent = other.chasePercent;
+
+        System.arraycopy(other.foodBits, 0, foodBits, 0, foodBits.length);
+        foodRemaining = other.foodRemaining;
+        if (eatenTiles.length < other.eatenCount) {
+            eatenTiles = new int[other.eatenTiles.length];
+        }
+        System.arraycopy(other.eatenTiles, 0, eatenTiles, 0, other.eatenCount);
+        eatenCount = other.eatenCount;
+
+        pacman.copyFrom(other.pacman);
+        ghosts.copyFrom(other.ghosts);
+
+        for (int i = 0; i < bfsCount; i++) {
+            pacmanDistance[bfsQueue[i]] = UNREACHABLE;
+        }
+        bfsCount = other.bfsCount;
+        for (int i = 0; i < bfsCount; i++) {
+            int tile = other.bfsQueue[i];
+            bfsQueue[i] = tile;
+            pacmanDistance[tile] = other.pacmanDistance[tile];
+        }
+        flowFieldTile = other.flowFieldTile;
+    }
+
+    // Puts the pellets, ghosts and pacman back. The tiles never change, so everything derived from them
+    // alone is built on the first call and reused, keeping a level restart cheap on very large maps.
+    public void loadMap() {
+        if (exitMask == null) {
+            buildTileData();
+        } else {
+            Arrays.fill(foodBits, 0L);
+        }
+        foodRemaining = 0;
+        ghosts.clear();
+
+        for (int r = 0; r < rowCount; r++) {
+            for (int c = 0; c < columnCount; c++) {
+                char tileMapChar = (char) tiles[r*columnCount + c];
+                if (tileMapChar == 'X') continue; //block wall
+
+                int x = c*tileSize;
+                int y = r*tileSize;
+
+                if (GHOST_SPRITES.indexOf(tileMapChar) >= 0) { //ghosts
+                    ghosts.add(GHOST_SPRITES.indexOf(tileMapChar), x, y);
+                }
+                else if (tileMapChar == 'P') { //pacman
+                    if (pacman == null) {
+                        pacman = new Block(tileMapChar, x, y, tileSize, tileSize);
+                    } else {
+                        pacman.respawn(x, y);
+                    }
+                }
+                else if (tileMapChar == ' ') { //food
+                    int tile = r*columnCount + c;
+                    foodBits[tile >> 6] |= 1L << tile;
+                    foodRemaining++;
+                }
+            }
+        }
+        if (eatenTiles == null || eatenTiles.length < foodRemaining) {
+            eatenTiles = new int[foodRemaining];
+        }
+        eatenCount = 0;
+        flowFieldTile = -1;
+        mapVersion++;
+    }
+
+    // Advance the game by one tick. input is the direction requested this tick (U D L R), or 0 for none.
+    // A turn into a wall is kept and taken at the first tick it fits (with bufferTurns), so a player can
+    // press early, e.g. before reaching a side corridor. Asking for the way pacman already moves cancels it.
+    public void step(char input) {
+        if (gameOver) return;
+        pacman.savePosition();
+        ghosts.savePositions();
+        if (input != 0) {
+            if (recorder != null) recorder.record(tick, input);
+            boolean moving = pacman.velocityX != 0 || pacman.velocityY != 0;
+            if (bufferTurns && moving && input == pacman.direction) {
+                queuedTurn = 0; //already heading there
+            } else if (input != queuedTurn) {
+                queuedTurn = input;
+                queuedTick = tick; //key repeats of a turn already waiting keep its first tick
+            }
+        }
+        if (queuedTurn != 0) {
+            int x = pacman.x;
+            int y = pacman.y;
+            pacman.updateDirection(queuedTurn);
+            //a blocked updateDirection() puts pacman back where he was; asked for the way he already faces, the
+            //direction alone does not tell whether it fit, so a turn counts as taken only if pacman moved
+            if (pacman.x != x || pacman.y != y) {
+                turnsTaken++;
+                lastTurnTicks = tick - queuedTick + 1;
+                queuedTurn = 0;
+            } else if (!bufferTurns) {
+                queuedTurn = 0;
+            }
+        }
+        move();
+        tick++;
+    }
+
+    // Start over as a brand new game: the same as new GameEngine(map, seed) on this engine's map, but
+    // reusing everything built from the map. Not recorded by the recorder.
+    public void reset(long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+        loadMap();
+        for (int i = 0; i < ghosts.count; i++) {
+            ghosts.setDirection(i, random.nextInt(4));
+        }
+        score = 0;
+        lives = 3;
+        gameOver = false;
+        tick = 0;
+        queuedTurn = 0;
+    }
+
+    // Start a fresh game after game over
+    public void restart() {
+        if (recorder != null) recorder.record(tick, ReplayRecorder.RESTART);
+        loadMap();
+        resetPositions();
+        lives = 3;
+        score = 0;
+        gameOver = false;
+    }
+
+    public void move() {
+        pacman.x += pacman.velocityX;
+        pacman.y += pacman.velocityY;
+
+        //check wall collisions
+        if (collidesWithWall(pacman)) {
+            pacman.x -= pacman.velocityX;
+            pacman.y -= pacman.velocityY;
+        }
+
+        // check ghost collisions: each ghost is tested where it stands before it moves, so the first one (in
+        // index order) touching pacman catches him once the ghosts before it have taken their step
+        EntityStore g = ghosts;
+        int size = g.size;
+        if (ghostGrid == null) ghostGrid = new SpatialGrid(ghosts, rowCount, columnCount, tileSize);
+        ghostGrid.rebuild();
+        int caught = ghostGrid.firstOverlap(pacman.x, pacman.y, pacman.width, pacman.height);
+        int moving = caught >= 0 ? caught : g.count;
+
+        // move ghosts
+        for (int i = 0; i < moving; i++) {
+            // If the ghost is exactly aligned with the tile grid, pick a new direction among valid moves
+            boolean atTile = (g.x[i] % tileSize == 0) && (g.y[i] % tileSize == 0);
+            if (atTile) {
+                int exits = exitMaskAt(g.x[i], g.y[i]);
+                // avoid immediate backtracking unless it is the only way out
+                int choices = exits & ~(1 << OPPOSITE[g.direction[i]]);
+                if (choices == 0) {
+                    if (exits != 0) g.setDirection(i, Integer.numberOfTrailingZeros(exits));
+                    // else stuck — keep current direction
+                } else if (random.nextInt(100) < chasePercent && inChaseRange(g.x[i] / tileSize, g.y[i] / tileSize)) {
+                    g.setDirection(i, chaseExit(g.x[i] / tileSize, g.y[i] / tileSize, choices));
+                } else {
+                    g.setDirection(i, pickExit(choices));
+                }
+            }
+
+            // move by velocity
+            g.x[i] += g.velocityX[i];
+            g.y[i] += g.velocityY[i];
+
+            // if collisions with walls or world bounds after moving, step back and choose a new valid direction
+            boolean bumped = collidesWithWall(g.x[i], g.y[i], size, size);
+            if (g.x[i] <= 0 || g.x[i] + size >= boardWidth) bumped = true;
+            if (bumped) {
+                g.x[i] -= g.velocityX[i];
+                g.y[i] -= g.velocityY[i];
+                // force choose new direction (allow backtracking now)
+                int exits = exitMaskAt(g.x[i], g.y[i]);
+                if (exits != 0) {
+                    g.setDirection(i, pickExit(exits));
+                }
+            }
+        }
+        if (caught >= 0) {
+            lives -= 1;
+            if (lives == 0) {
+                gameOver = true;
+                return;
+            }
+            resetPositions();
+        }
+
+        //check food collision, only in the tiles pacman covers
+        eatFood(pacman);
+
+        if (foodRemaining == 0) {
+            loadMap();
+            resetPositions();
+        }
+    }
+
+    private void buildTileData() {
+        allocateWorkArrays();
+
+        int tileCount = rowCount * columnCount;
+        exitMask = new byte[tileCount];
+        for (int r = 0; r < rowCount; r++) {
+            for (int c = 0; c < columnCount; c++) {
+                exitMask[r*columnCount + c] = (byte) computeExits(r, c);
+            }
+        }
+    }
+
+    // The per tile arrays every engine needs its own copy of, even when it shares the map with another one
+    private void allocateWorkArrays() {
+        int tileCount = rowCount * columnCount;
+        foodBits = new long[(tileCount + 63) >> 6];
+
+        pacmanDistance = new short[tileCount];
+        Arrays.fill(pacmanDistance, UNREACHABLE);
+        //tiles within chaseRadius steps: at most 2r(r+1)+1 of them
+        bfsQueue = new int[(int) Math.min(tileCount, 2L * chaseRadius * (chaseRadius + 1) + 1)];
+        bfsCount = 0;
+
+        ghostGrid = null; //sized for the old map; move() makes a new one when it is first needed
+    }
+
+    private int computeExits(int row, int col) {
+        int exits = 0;
+        if (!isWallTile(row - 1, col)) exits |= 1;
+        if (!isWallTile(row + 1, col)) exits |= 2;
+        if (!isWallTile(row, col - 1)) exits |= 4;
+        if (!isWallTile(row, col + 1)) exits |= 8;
+        return exits;
+    }
+
+    // Exit mask of the tile containing pixel (x,y)
+    int exitMaskAt(int x, int y) {
+        int row = Math.floorDiv(y, tileSize);
+        int col = Math.floorDiv(x, tileSize);
+        if (row < 0 || row >= rowCount || col < 0 || col >= columnCount) return computeExits(row, col);
+        return exitMask[row*columnCount + col];
+    }
+
+    // Index into directions of a random set bit of mask (mask must not be 0); draws from random the
+    // same way picking from a list of the open directions in U D L R order would
+    private int pickExit(int mask) {
+        int n = random.nextInt(Integer.bitCount(mask));
+        while (n-- > 0) {
+            mask &= mask - 1; //drop the lowest set bit
+        }
+        return Integer.numberOfTrailingZeros(mask);
+    }
+
+    // Whether the flow field reaches the tile, i.e. it is within chaseRadius of pacman
+    private boolean inChaseRange(int col, int row) {
+        updateFlowField();
+        if (row < 0 || row >= rowCount || col < 0 || col >= columnCount) return false;
+        return pacmanDistance[row*columnCount + col] != UNREACHABLE;
+    }
+
+    // Index into directions of the exit in mask that leads closest to pacman (first in U D L R order on ties)
+    private int chaseExit(int col, int row, int mask) {
+        updateFlowField();
+        int best = Integer.numberOfTrailingZeros(mask);
+        int bestDistance = Integer.MAX_VALUE;
+        for (int d = 0; d < 4; d++) {
+            if ((mask & (1 << d)) == 0) continue;
+            int r = row + (d == 0 ? -1 : d == 1 ? 1 : 0);
+            int c = col + (d == 2 ? -1 : d == 3 ? 1 : 0);
+            int distance = (r < 0 || r >= rowCount || c < 0 || c >= columnCount) ? UNREACHABLE : pacmanDistance[r*columnCount + c];
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = d;
+            }
+        }
+        return best;
+    }
+
+    // Breadth-first search over non-wall tiles from the tile under pacman's center, if that has changed
+    private void updateFlowField() {
+        int row = Math.floorDiv(pacman.y + pacman.height/2, tileSize);
+        int col = Math.floorDiv(pacman.x + pacman.width/2, tileSize);
+        if (row < 0 || row >= rowCount || col < 0 || col >= columnCount) return; //off the board: keep the last field
+        int source = row*columnCount + col;
+        if (source == flowFieldTile) return;
+
+        for (int i = 0; i < bfsCount; i++) {
+            pacmanDistance[bfsQueue[i]] = UNREACHABLE;
+        }
+        pacmanDistance[source] = 0;
+        bfsQueue[0] = source;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int tile = bfsQueue[head++];
+            int r = tile / columnCount;
+            int c = tile - r*columnCount;
+            if (pacmanDistance[tile] >= chaseRadius) continue;
+            short next = (short) (pacmanDistance[tile] + 1);
+            int exits = exitMask[tile];
+            if ((exits & 1) != 0 && r > 0) tail = visit(tile - columnCount, next, tail);
+            if ((exits & 2) != 0 && r < rowCount - 1) tail = visit(tile + columnCount, next, tail);
+            if ((exits & 4) != 0 && c > 0) tail = visit(tile - 1, next, tail);
+            if ((exits & 8) != 0 && c < columnCount - 1) tail = visit(tile + 1, next, tail);
+        }
+        bfsCount = tail;
+        flowFieldTile = source;
+    }
+
+    private int visit(int tile, short distance, int tail) {
+        if (pacmanDistance[tile] != UNREACHABLE) return tail;
+        pacmanDistance[tile] = distance;
+        bfsQueue[tail] = tile;
+        return tail + 1;
+    }
+
+    boolean hasFood(int row, int col) {
+        if (row < 0 || row >= rowCount || col < 0 || col >= columnCount) return false;
+        int tile = row*columnCount + col;
+        return (foodBits[tile >> 6] & (1L << tile)) != 0;
+    }
+
+    private void eatFood(Block b) {
+        int firstCol = Math.floorDiv(b.x, tileSize);
+        int lastCol = Math.floorDiv(b.x + b.width - 1, tileSize);
+        int firstRow = Math.floorDiv(b.y, tileSize);
+        int lastRow = Math.floorDiv(b.y + b.height - 1, tileSize);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                if (!hasFood(r, c)) continue;
+                int foodX = c*tileSize + foodOffset;
+                int foodY = r*tileSize + foodOffset;
+                if (b.x < foodX + foodSize && b.x + b.width > foodX && b.y < foodY + foodSize && b.y + b.height > foodY) {
+                    int tile = r*columnCount + c;
+                    foodBits[tile >> 6] &= ~(1L << tile);
+                    foodRemaining--;
+                    eatenTiles[eatenCount++] = tile;
+                    score += 10;
+                }
+            }
+        }
+    }
+
+    // Fingerprint of everything that decides how the game continues, to check that a replay is bit-identical
+    long stateHash() {
+        long h = 17;
+        h = h * 31 + tick;
+        h = h * 31 + score;
+        h = h * 31 + lives;
+        h = h * 31 + (gameOver ? 1 : 0);
+        h = h * 31 + mapVersion;
+        h = h * 31 + blockHash(pacman);
+        if (queuedTurn != 0) {
+            h = h * 31 + queuedTurn; //only when set, so hashes recorded before the turn buffer still match
+        }
+        for (int i = 0; i < ghosts.count; i++) {
+            h = h * 31 + ((long) ghosts.x[i] * 31 + ghosts.y[i]) * 31 + directions[ghosts.direction[i]];
+        }
+        for (long bits : foodBits) {
+            h = h * 31 + bits;
+        }
+        return h;
+    }
+
+    private static long blockHash(Block b) {
+        return ((long) b.x * 31 + b.y) * 31 + b.direction;
+    }
+
+    public boolean collision(Block a, Block b) {
+        return  a.x < b.x + b.width &&
+                a.x + a.width > b.x &&
+                a.y < b.y + b.height &&
+                a.y + a.height > b.y;
+    }
+
+    // Tiles outside the map are never walls (the side tunnels lead off the board)
+    boolean isWallTile(int row, int col) {
+        return row >= 0 && row < rowCount && col >= 0 && col < columnCount && tiles[row*columnCount + col] == 'X';
+    }
+
+    private boolean collidesWithWall(Block b) {
+        return collidesWithWall(b.x, b.y, b.width, b.height);
+    }
+
+    // Same result as testing collision() against every wall, but only looks at the tiles under the box
+    private boolean collidesWithWall(int x, int y, int width, int height) {
+        int firstCol = Math.floorDiv(x, tileSize);
+        int lastCol = Math.floorDiv(x + width - 1, tileSize);
+        int firstRow = Math.floorDiv(y, tileSize);
+        int lastRow = Math.floorDiv(y + height - 1, tileSize);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                if (isWallTile(r, c)) return true;
+            }
+        }
+        return false;
+    }
+
+    public void resetPositions() {
+        queuedTurn = 0;
+        pacman.reset();
+        pacman.velocityX = 0;
+        pacman.velocityY = 0;
+        for (int i = 0; i < ghosts.count; i++) {
+            ghosts.reset(i);
+            updateGhostDirection(i, random.nextInt(4));
+        }
+    }
+
+    // Block.updateDirection() for a ghost: turn and take a step, or keep the old direction if that hits a wall
+    private void updateGhostDirection(int i, int dir) {
+        int prevDirection = ghosts.direction[i];
+        ghosts.setDirection(i, dir);
+        ghosts.x[i] += ghosts.velocityX[i];
+        ghosts.y[i] += ghosts.velocityY[i];
+        if (collidesWithWall(ghosts.x[i], ghosts.y[i], ghosts.size, ghosts.size)) {
+            ghosts.x[i] -= ghosts.velocityX[i];
+            ghosts.y[i] -= ghosts.velocityY[i];
+            ghosts.setDirection(i, prevDirection);
+        }
+    }
+}
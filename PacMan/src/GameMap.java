@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// The tile map a game is played on, of any size, kept as one byte per tile (the DEFAULT_MAP characters,
+// row major) instead of a String per row. Map files are read through a memory-mapped FileChannel, so a
+// 1000x1000 map is a single bulk copy of about 1 MB.
+//
+// File format (big endian):
+//   int magic 'PMAP', byte version, int rows, int columns, rows x columns tile bytes
+//
+// Usage: java GameMap <text map> <out.pmap>        convert a text map (one line per row)
+//        java GameMap --scaled <n> <ghosts> <out>  the built-in maze tiled n x n times (as in Bench)
+public class GameMap {
+    static final int MAGIC = 0x504D4150; //"PMAP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 13;
+    static final String TILE_CHARS = "XOP bopr";
+
+    int rows;
+    int columns;
+    byte[] tiles; //tiles[row*columns + col]
+
+    GameMap(int rows, int columns, byte[] tiles) {
+        this.rows = rows;
+        this.columns = columns;
+        this.tiles = tiles;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 4 && args[0].equals("--scaled")) {
+            String[] map = scaledRows(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            fromRows(map).write(args[3]);
+        } else if (args.length == 2) {
+            List<String> lines = Files.readAllLines(Paths.get(args[0]), StandardCharsets.US_ASCII);
+            fromRows(lines.toArray(new String[0])).write(args[1]);
+        } else {
+            System.err.println("usage: java GameMap <text map> <out.pmap> | --scaled <n> <ghosts> <out.pmap>");
+            System.exit(2);
+        }
+    }
+
+    static GameMap load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) throw new IOException(path + " is not a map file");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) throw new IOException(path + " is not a map file");
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) throw new IOException("unsupported map version " + version);
+            int rows = buffer.getInt();
+            int columns = buffer.getInt();
+            if (rows <= 0 || columns <= 0 || (long) rows * columns != size - HEADER_SIZE) {
+                throw new IOException(path + ": " + rows + "x" + columns + " does not match the file size");
+            }
+            byte[] tiles = new byte[rows * columns];
+            buffer.get(tiles);
+            return validate(new GameMap(rows, columns, tiles));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(path + ": " + e.getMessage());
+        }
+    }
+
+    // Rows of equal length, as in GameEngine.DEFAULT_MAP
+    static GameMap fromRows(String[] map) {
+        int rows = map.length;
+        int columns = map[0].length();
+        byte[] tiles = new byte[rows * columns];
+        for (int r = 0; r < rows; r++) {
+            if (map[r].length() != columns) {
+                throw new IllegalArgumentException("row " + r + " has " + map[r].length() + " tiles, expected " + columns);
+            }
+            for (int c = 0; c < columns; c++) {
+                tiles[r*columns + c] = (byte) map[r].charAt(c);
+            }
+        }
+        return validate(new GameMap(rows, columns, tiles));
+    }
+
+    // Every tile must be a known map character and there must be exactly one pacman
+    private static GameMap validate(GameMap map) {
+        int pacmen = 0;
+        for (int i = 0; i < map.tiles.length; i++) {
+            char tile = (char) map.tiles[i];
+            if (TILE_CHARS.indexOf(tile) < 0) {
+                throw new IllegalArgumentException("unknown tile '" + tile + "' at row " + i / map.columns + ", column " + i % map.columns);
+            }
+            if (tile == 'P') pacmen++;
+        }
+        if (pacmen != 1) throw new IllegalArgumentException("map needs exactly one 'P', found " + pacmen);
+        return map;
+    }
+
+    // Rows of the built-in maze tiled scale x scale times, with one pacman and the requested number of ghosts
+    // spread evenly over what were food tiles (the maps Bench measures on)
+    static String[] scaledRows(int scale, int ghosts) {
+        String[] base = GameEngine.DEFAULT_MAP;
+        int rows = base.length * scale;
+        int cols = base[0].length() * scale;
+        char[][] tiles = new char[rows][cols];
+        ArrayList<int[]> foodTiles = new ArrayList<int[]>();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                char ch = base[r % base.length].charAt(c % base[0].length());
+                boolean firstCopy = r < base.length && c < base[0].length();
+                if (ch == 'b' || ch == 'o' || ch == 'p' || ch == 'r' || (ch == 'P' && !firstCopy)) {
+                    ch = ' ';
+                }
+                tiles[r][c] = ch;
+                if (ch == ' ') foodTiles.add(new int[] {r, c});
+            }
+        }
+        char[] ghostChars = {'b', 'o', 'p', 'r'};
+        ghosts = Math.min(ghosts, foodTiles.size());
+        for (int i = 0; i < ghosts; i++) {
+            int[] tile = foodTiles.get((int) ((long) i * foodTiles.size() / ghosts));
+            tiles[tile[0]][tile[1]] = ghostChars[i % ghostChars.length];
+        }
+        String[] map = new String[rows];
+        for (int r = 0; r < rows; r++) {
+            map[r] = new String(tiles[r]);
+        }
+        return map;
+    }
+
+    void write(String path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put((byte) VERSION).putInt(rows).putInt(columns).flip();
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer body = ByteBuffer.wrap(tiles);
+            while (header.hasRemaining()) channel.write(header);
+            while (body.hasRemaining()) channel.write(body);
+        }
+    }
+}
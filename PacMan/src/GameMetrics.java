@@ -0,0 +1,273 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+// Frame pacing numbers for one game session: how long each engine tick and each frame's draw took, the
+// time between frames and how much that changed from one frame to the next (jitter), GC pauses, and how
+// long an arrow key press takes to turn pacman (in time and in ticks, since a turn waits for an opening).
+// The driver (PacMan or GameCanvas) records ticks and frames on its own thread; GC pauses arrive on the
+// JMX notification thread once register() has been called. Read through JMX, the debug overlay
+// (F3 or -Dpacman.overlay=true) or summary().
+public class GameMetrics implements GameMetricsMBean {
+    static final String OBJECT_NAME = "PacMan:type=GameMetrics";
+
+    final LatencyHistogram tick = new LatencyHistogram();
+    final LatencyHistogram render = new LatencyHistogram();
+    final LatencyHistogram frameInterval = new LatencyHistogram();
+    final LatencyHistogram jitter = new LatencyHistogram();
+    final LatencyHistogram gcPause = new LatencyHistogram();
+    final LatencyHistogram turnLatency = new LatencyHistogram(); //key press to pacman moving the new way
+    final LatencyHistogram turnTicks = new LatencyHistogram(); //the same in ticks (recorded as plain counts)
+
+    private long lastFrameStart = 0;
+    private long lastInterval = -1;
+
+    private ObjectName objectName;
+    private final ArrayList<NotificationEmitter> gcEmitters = new ArrayList<NotificationEmitter>();
+    private final NotificationListener gcListener = this::gcNotification;
+
+    void tick(long nanos) {
+        tick.record(nanos);
+    }
+
+    // A key press at pressNanos (System.nanoTime()) whose turn took effect now, ticks ticks later
+    void turn(long pressNanos, int ticks) {
+        turnLatency.record(System.nanoTime() - pressNanos);
+        turnTicks.record(ticks);
+    }
+
+    // A frame that started drawing at start (System.nanoTime()) and took renderNanos
+    void frame(long start, long renderNanos) {
+        render.record(renderNanos);
+        if (lastFrameStart != 0) {
+            long interval = start - lastFrameStart;
+            frameInterval.record(interval);
+            if (lastInterval >= 0) {
+                jitter.record(Math.abs(interval - lastInterval));
+            }
+            lastInterval = interval;
+        }
+        lastFrameStart = start;
+    }
+
+    // Publishes the metrics as an MBean and starts listening for GC pauses
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName); //a previous session in this JVM
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            throw new IllegalStateException("cannot register " + OBJECT_NAME, e);
+        }
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(gcListener, null, null);
+                gcEmitters.add(emitter);
+            }
+        }
+    }
+
+    void unregister() {
+        for (NotificationEmitter emitter : gcEmitters) {
+            try {
+                emitter.removeNotificationListener(gcListener);
+            } catch (ListenerNotFoundException e) {
+                //already gone
+            }
+        }
+        gcEmitters.clear();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (InstanceNotFoundException e) {
+                //already gone
+            } catch (Exception e) {
+                throw new IllegalStateException("cannot unregister " + OBJECT_NAME, e);
+            }
+            objectName = null;
+        }
+    }
+
+    private void gcNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        //collectors that report whole concurrent cycles (ZGC, Shenandoah) report their pauses separately
+        if (info.getGcAction().contains("cycle")) return;
+        gcPause.record(info.getGcInfo().getDuration() * 1_000_000L);
+    }
+
+    // One line per histogram with count, p50, p99 and max in microseconds, for logs and bug reports
+    String summary() {
+        StringBuilder out = new StringBuilder();
+        line(out, "tick", tick);
+        line(out, "render", render);
+        line(out, "frame interval", frameInterval);
+        line(out, "jitter", jitter);
+        line(out, "gc pause", gcPause);
+        line(out, "key to turn", turnLatency);
+        out.append(String.format("%-15s n=%-8d p50=%d p99=%d max=%d ticks%n", "key to turn", turnTicks.count(),
+                turnTicks.percentile(0.5), turnTicks.percentile(0.99), turnTicks.max()));
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, LatencyHistogram histogram) {
+        out.append(String.format("%-15s n=%-8d p50=%dus p99=%dus max=%dus%n", name, histogram.count(),
+                micros(histogram.percentile(0.5)), micros(histogram.percentile(0.99)), micros(histogram.max())));
+    }
+
+    static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    @Override
+    public long getTicks() {
+        return tick.count();
+    }
+
+    @Override
+    public long getTickP50Micros() {
+        return micros(tick.percentile(0.5));
+    }
+
+    @Override
+    public long getTickP99Micros() {
+        return micros(tick.percentile(0.99));
+    }
+
+    @Override
+    public long getTickMaxMicros() {
+        return micros(tick.max());
+    }
+
+    @Override
+    public long getFrames() {
+        return render.count();
+    }
+
+    @Override
+    public long getRenderP50Micros() {
+        return micros(render.percentile(0.5));
+    }
+
+    @Override
+    public long getRenderP99Micros() {
+        return micros(render.percentile(0.99));
+    }
+
+    @Override
+    public long getRenderMaxMicros() {
+        return micros(render.max());
+    }
+
+    @Override
+    public long getFrameIntervalP50Micros() {
+        return micros(frameInterval.percentile(0.5));
+    }
+
+    @Override
+    public long getFrameIntervalP99Micros() {
+        return micros(frameInterval.percentile(0.99));
+    }
+
+    @Override
+    public long getFrameIntervalMaxMicros() {
+        return micros(frameInterval.max());
+    }
+
+    @Override
+    public long getJitterP50Micros() {
+        return micros(jitter.percentile(0.5));
+    }
+
+    @Override
+    public long getJitterP99Micros() {
+        return micros(jitter.percentile(0.99));
+    }
+
+    @Override
+    public long getJitterMaxMicros() {
+        return micros(jitter.max());
+    }
+
+    @Override
+    public long getGcPauses() {
+        return gcPause.count();
+    }
+
+    @Override
+    public long getGcPauseP50Micros() {
+        return micros(gcPause.percentile(0.5));
+    }
+
+    @Override
+    public long getGcPauseP99Micros() {
+        return micros(gcPause.percentile(0.99));
+    }
+
+    @Override
+    public long getGcPauseMaxMicros() {
+        return micros(gcPause.max());
+    }
+
+    @Override
+    public long getTurns() {
+        return turnLatency.count();
+    }
+
+    @Override
+    public long getTurnLatencyP50Micros() {
+        return micros(turnLatency.percentile(0.5));
+    }
+
+    @Override
+    public long getTurnLatencyP99Micros() {
+        return micros(turnLatency.percentile(0.99));
+    }
+
+    @Override
+    public long getTurnLatencyMaxMicros() {
+        return micros(turnLatency.max());
+    }
+
+    @Override
+    public long getTurnTicksP50() {
+        return turnTicks.percentile(0.5);
+    }
+
+    @Override
+    public long getTurnTicksP99() {
+        return turnTicks.percentile(0.99);
+    }
+
+    @Override
+    public long getTurnTicksMax() {
+        return turnTicks.max();
+    }
+
+    // Starts a fresh measurement window; a tick or frame being recorded at the same moment may be lost
+    @Override
+    public void reset() {
+        tick.reset();
+        render.reset();
+        frameInterval.reset();
+        jitter.reset();
+        gcPause.reset();
+        turnLatency.reset();
+        turnTicks.reset();
+        lastFrameStart = 0;
+        lastInterval = -1;
+    }
+}
@@ -0,0 +1,36 @@
+// JMX view of GameMetrics (registered as PacMan:type=GameMetrics); all durations in microseconds, turn
+// ticks in ticks
+public interface GameMetricsMBean {
+    long getTicks();
+    long getTickP50Micros();
+    long getTickP99Micros();
+    long getTickMaxMicros();
+
+    long getFrames();
+    long getRenderP50Micros();
+    long getRenderP99Micros();
+    long getRenderMaxMicros();
+
+    long getFrameIntervalP50Micros();
+    long getFrameIntervalP99Micros();
+    long getFrameIntervalMaxMicros();
+
+    long getJitterP50Micros();
+    long getJitterP99Micros();
+    long getJitterMaxMicros();
+
+    long getGcPauses();
+    long getGcPauseP50Micros();
+    long getGcPauseP99Micros();
+    long getGcPauseMaxMicros();
+
+    long getTurns();
+    long getTurnLatencyP50Micros();
+    long getTurnLatencyP99Micros();
+    long getTurnLatencyMaxMicros();
+    long getTurnTicksP50();
+    long getTurnTicksP99();
+    long getTurnTicksMax();
+
+    void reset();
+}
@@ -0,0 +1,42 @@
+// The random number stream of a game. Produces exactly the numbers java.util.Random does for the same seed
+// (the same 48-bit linear congruential generator and nextInt algorithm), so seeded games and recorded
+// replays play out as before, but its state is a plain long that copyFrom() can duplicate. A forked game
+// therefore draws the same numbers as the game it was forked from.
+public class GameRandom {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long seed;
+
+    GameRandom(long seed) {
+        setSeed(seed);
+    }
+
+    void setSeed(long seed) {
+        this.seed = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    void copyFrom(GameRandom other) {
+        seed = other.seed;
+    }
+
+    private int next(int bits) {
+        seed = (seed * MULTIPLIER + ADDEND) & MASK;
+        return (int) (seed >>> (48 - bits));
+    }
+
+    // Uniform in 0 (inclusive) to bound (exclusive), bound must be positive
+    int nextInt(int bound) {
+        if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+        int r = next(31);
+        int m = bound - 1;
+        if ((bound & m) == 0) { //power of two: take the high bits
+            return (int) ((bound * (long) r) >> 31);
+        }
+        //reject the top values that would make the low results more likely
+        for (int u = r; u - (r = u % bound) + m < 0; u = next(31)) {
+        }
+        return r;
+    }
+}
@@ -0,0 +1,420 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// Draws a GameEngine: the cached maze chunks, the sprites and the HUD/game over overlay.
+// Shared by the Swing panel (PacMan) and the actively rendered GameCanvas. Maps larger than the
+// viewport scroll with pacman, and only the tiles and sprites inside the viewport are drawn.
+public class GameRenderer {
+    private BufferedImage wallImage;
+    private BufferedImage blueGhostImage;
+    private BufferedImage orangeGhostImage;
+    private BufferedImage pinkGhostImage;
+    private BufferedImage redGhostImage;
+    private BufferedImage[] ghostImages; //indexed by ghost sprite id, in GameEngine.GHOST_SPRITES order
+
+    private BufferedImage pacmanUpImage;
+    private BufferedImage pacmanDownImage;
+    private BufferedImage pacmanLeftImage;
+    private BufferedImage pacmanRightImage;
+
+    GameEngine engine;
+    Component target; //the component drawn on, used to pick a compatible image format
+    BufferedImage pacmanImage;
+
+    //the window shows at most VIEW_COLUMNS x VIEW_ROWS tiles (the size of the built-in maze)
+    static final int VIEW_COLUMNS = 19;
+    static final int VIEW_ROWS = 21;
+    int viewWidth;
+    int viewHeight;
+    int cameraX; //board position of the viewport's top left corner, set by updateCamera()
+    int cameraY;
+
+    //the maze (walls plus remaining pellets) is cached as CHUNK_TILES x CHUNK_TILES tile images, built when
+    //they first come into view. A fixed pool of slots holds them, least recently drawn chunk evicted first,
+    //so memory and frame time depend on the viewport size, not the map size.
+    static final int CHUNK_TILES = 16;
+    private int chunkPixels;
+    private int chunkColumns; //chunks across the board
+    private int[] chunkSlot; //per chunk (chunkRow*chunkColumns + chunkCol): slot holding its image, -1 if none
+    private BufferedImage[] slotImages; //created on first use
+    private Graphics2D[] slotGraphics; //kept open for building chunks and erasing pellets
+    private int[] slotChunk; //per slot: chunk it holds, -1 when free
+    private long[] slotUsed; //frame the slot was last drawn in
+    private long frame = 0;
+    private int layerMapVersion = -1;
+    private int chunksEaten = 0; //how many of engine.eatenTiles have been erased from cached chunks
+    private int spriteX; //where place() puts a sprite
+    private int spriteY;
+
+    //HUD and game over resources, created once instead of per frame
+    private static final String SCORE_LABEL = " Score: ";
+    private static final String FINAL_SCORE_LABEL = "Final Score: ";
+    private static final Color SCORE_COLOR = new Color(220, 220, 220);
+    private final Font hudFont = new Font("Arial", Font.PLAIN, 18);
+    private final Font scoreFont = new Font("Arial", Font.PLAIN, 28);
+    private FontMetrics scoreMetrics;
+    private final char[] hudChars = new char[32];
+    private final char[] finalScoreChars = new char[32];
+    private BufferedImage overlayLayer; //static part of the game over screen
+    private int finalScoreY;
+
+    //debug overlay under the HUD line: count, p50, p99 and max of each GameMetrics histogram
+    GameMetrics metrics;
+    volatile boolean showMetrics = false; //toggled on the EDT, also read by PacMan's simulation thread
+    private static final String[] METRIC_LABELS = {"tick", "draw", "frame", "jitter", "gc", "turn"};
+    private static final Color METRICS_COLOR = new Color(120, 255, 120);
+    private static final int METRICS_LINE_HEIGHT = 20;
+    int metricsBottom; //lowest screen y the overlay draws at, for dirty-rectangle repaints
+    private final char[] metricsChars = new char[96];
+
+    // atlas holds the sprites already scaled to engine.tileSize, so nothing is decoded or scaled here
+    GameRenderer(GameEngine engine, Component target, SpriteAtlas atlas) {
+        this.engine = engine;
+        this.target = target;
+        viewWidth = viewWidth(engine);
+        viewHeight = viewHeight(engine);
+        metricsBottom = engine.tileSize/2 + METRIC_LABELS.length*METRICS_LINE_HEIGHT + METRICS_LINE_HEIGHT/2;
+
+        wallImage = atlas.wall;
+        blueGhostImage = atlas.blueGhost;
+        orangeGhostImage = atlas.orangeGhost;
+        pinkGhostImage = atlas.pinkGhost;
+        redGhostImage = atlas.redGhost;
+        ghostImages = new BufferedImage[] {blueGhostImage, orangeGhostImage, pinkGhostImage, redGhostImage};
+
+        pacmanUpImage = atlas.pacmanUp;
+        pacmanDownImage = atlas.pacmanDown;
+        pacmanLeftImage = atlas.pacmanLeft;
+        pacmanRightImage = atlas.pacmanRight;
+        pacmanImage = pacmanRightImage;
+
+        buildOverlay();
+    }
+
+    static int viewWidth(GameEngine engine) {
+        return Math.min(engine.boardWidth, VIEW_COLUMNS * engine.tileSize);
+    }
+
+    static int viewHeight(GameEngine engine) {
+        return Math.min(engine.boardHeight, VIEW_ROWS * engine.tileSize);
+    }
+
+    // Everything on the game over screen except the final score, composited into one translucent image.
+    // Drawing the parts into a transparent layer and blending the layer over the scene gives the same
+    // pixels as drawing them over the scene one by one.
+    private void buildOverlay() {
+        int boardWidth = viewWidth;
+        int boardHeight = viewHeight;
+        overlayLayer = createLayer(boardWidth, boardHeight, Transparency.TRANSLUCENT);
+        Graphics2D g2 = overlayLayer.createGraphics();
+
+        // Dim the whole scene
+        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.75f));
+        g2.setColor(new Color(0, 0, 0, 200));
+        g2.fillRect(0, 0, boardWidth, boardHeight);
+
+        // Add a soft spotlight (lighting) behind the game over panel
+        int cx = boardWidth / 2;
+        int cy = boardHeight / 2 - 40;
+        int radius = Math.max(boardWidth, boardHeight) / 3;
+        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.18f));
+        g2.setPaint(Color.WHITE);
+        g2.fillOval(cx - radius, cy - radius, radius * 2, radius * 2);
+
+        // Reset composite for panel drawing
+        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
+
+        // Centered panel with gradient background
+        int panelW = Math.min(500, boardWidth - 80);
+        int panelH = 220;
+        int px = (boardWidth - panelW) / 2;
+        int py = (boardHeight - panelH) / 2;
+        GradientPaint gp = new GradientPaint(px, py, new Color(60, 60, 60, 230), px, py + panelH, new Color(20, 20, 20, 230));
+        g2.setPaint(gp);
+        g2.fillRoundRect(px, py, panelW, panelH, 24, 24);
+
+        // Panel border (glow)
+        g2.setStroke(new BasicStroke(4f));
+        g2.setColor(new Color(255, 200, 60, 200));
+        g2.drawRoundRect(px, py, panelW, panelH, 24, 24);
+
+        // Title: GAME OVER
+        g2.setFont(new Font("Arial", Font.BOLD, 48));
+        FontMetrics fm = g2.getFontMetrics();
+        String title = "GAME OVER";
+        int tx = (boardWidth - fm.stringWidth(title)) / 2;
+        int ty = py + 70;
+        g2.setColor(Color.WHITE);
+        g2.drawString(title, tx, ty);
+        finalScoreY = ty + 50;
+
+        // Restart hint
+        g2.setFont(new Font("Arial", Font.PLAIN, 18));
+        fm = g2.getFontMetrics();
+        String hint = "Press any key to restart";
+        int hx = (boardWidth - fm.stringWidth(hint)) / 2;
+        int hy = py + panelH - 28;
+        g2.setColor(new Color(200, 200, 200, 200));
+        g2.drawString(hint, hx, hy);
+
+        scoreMetrics = g2.getFontMetrics(scoreFont);
+        g2.dispose();
+    }
+
+    // Brings the chunk cache up to date with the engine: drop every chunk after loadMap(),
+    // otherwise just erase the pellets eaten since the last frame from the chunks that are cached
+    private void updateChunks() {
+        if (layerMapVersion != engine.mapVersion) {
+            if (chunkSlot == null) {
+                //the board size never changes for an engine, so the cache is sized once
+                chunkPixels = CHUNK_TILES * engine.tileSize;
+                chunkColumns = (engine.columnCount + CHUNK_TILES - 1) / CHUNK_TILES;
+                int chunkRows = (engine.rowCount + CHUNK_TILES - 1) / CHUNK_TILES;
+                chunkSlot = new int[chunkColumns * chunkRows];
+                //a viewport not aligned to the chunk grid touches up to this many chunks per axis
+                int across = (viewWidth - 1) / chunkPixels + 2;
+                int down = (viewHeight - 1) / chunkPixels + 2;
+                //one spare row and column so scrolling back and forth over a chunk border does not rebuild
+                int slots = Math.min(chunkSlot.length, (across + 1) * (down + 1));
+                slotImages = new BufferedImage[slots];
+                slotGraphics = new Graphics2D[slots];
+                slotChunk = new int[slots];
+                slotUsed = new long[slots];
+            }
+            Arrays.fill(chunkSlot, -1);
+            Arrays.fill(slotChunk, -1);
+            layerMapVersion = engine.mapVersion;
+            chunksEaten = 0;
+        }
+        int eaten = engine.eatenCount;
+        if (chunksEaten < eaten) {
+            //pellets only sit on floor tiles, where the chunk is plain background, so erasing one is a
+            //fill with the background color (a sub-rectangle drawImage allocates on every call)
+            int tileSize = engine.tileSize;
+            for (int i = chunksEaten; i < eaten; i++) {
+                int tile = engine.eatenTiles[i];
+                int row = tile / engine.columnCount;
+                int col = tile - row*engine.columnCount;
+                int slot = chunkSlot[(row / CHUNK_TILES)*chunkColumns + col / CHUNK_TILES];
+                if (slot < 0) continue; //built from the current pellets when it comes into view
+                Graphics2D cg = slotGraphics[slot];
+                cg.setColor(Color.BLACK);
+                cg.fillRect((col % CHUNK_TILES)*tileSize + engine.foodOffset, (row % CHUNK_TILES)*tileSize + engine.foodOffset,
+                        engine.foodSize, engine.foodSize);
+            }
+            chunksEaten = eaten;
+        }
+    }
+
+    // Slot holding the chunk's image, building it in the least recently drawn slot if it is not cached
+    private int slotFor(int chunk) {
+        int slot = chunkSlot[chunk];
+        if (slot < 0) {
+            slot = 0;
+            for (int s = 1; s < slotUsed.length; s++) {
+                if (slotUsed[s] < slotUsed[slot]) slot = s;
+            }
+            if (slotChunk[slot] >= 0) chunkSlot[slotChunk[slot]] = -1;
+            slotChunk[slot] = chunk;
+            chunkSlot[chunk] = slot;
+            buildChunk(slot, chunk);
+        }
+        slotUsed[slot] = frame;
+        return slot;
+    }
+
+    private void buildChunk(int slot, int chunk) {
+        if (slotImages[slot] == null) {
+            slotImages[slot] = createLayer(chunkPixels, chunkPixels, Transparency.OPAQUE);
+            slotGraphics[slot] = slotImages[slot].createGraphics();
+        }
+        Graphics2D cg = slotGraphics[slot];
+        cg.setColor(Color.BLACK);
+        cg.fillRect(0, 0, chunkPixels, chunkPixels);
+        cg.setColor(Color.WHITE);
+        int tileSize = engine.tileSize;
+        int firstRow = (chunk / chunkColumns) * CHUNK_TILES;
+        int firstCol = (chunk % chunkColumns) * CHUNK_TILES;
+        int lastRow = Math.min(engine.rowCount, firstRow + CHUNK_TILES);
+        int lastCol = Math.min(engine.columnCount, firstCol + CHUNK_TILES);
+        for (int r = firstRow; r < lastRow; r++) {
+            for (int c = firstCol; c < lastCol; c++) {
+                int x = (c - firstCol)*tileSize;
+                int y = (r - firstRow)*tileSize;
+                if (engine.isWallTile(r, c)) {
+                    cg.drawImage(wallImage, x, y, null);
+                } else if (engine.hasFood(r, c)) {
+                    cg.fillRect(x + engine.foodOffset, y + engine.foodOffset, engine.foodSize, engine.foodSize);
+                }
+            }
+        }
+    }
+
+    // Centers the viewport on pacman where he is drawn at this alpha, without showing anything off the board
+    void updateCamera(float alpha) {
+        GameEngine.Block pacman = engine.pacman;
+        place(pacman.prevX, pacman.prevY, pacman.x, pacman.y, alpha);
+        cameraX = camera(spriteX, engine.boardWidth, viewWidth, engine.tileSize);
+        cameraY = camera(spriteY, engine.boardHeight, viewHeight, engine.tileSize);
+    }
+
+    // Viewport x (or y) that centers a sprite at board position x (or y) on one axis of the given board and
+    // view size. Touches no renderer state, so PacMan's simulation thread can tell when a tick scrolls.
+    static int camera(int position, int board, int view, int tileSize) {
+        return Math.max(0, Math.min(board - view, position + tileSize/2 - view/2));
+    }
+
+    // Image in the screen's native format when there is one, so blitting it needs no conversion
+    private BufferedImage createLayer(int width, int height, int transparency) {
+        return SpriteAtlas.compatibleImage(target.getGraphicsConfiguration(), width, height, transparency);
+    }
+
+    // Draws the current game state. alpha in [0, 1] is how far rendering is between the previous tick
+    // and the current one: sprites are drawn at prev + (current - prev) * alpha, so a renderer that runs
+    // faster than the tick rate shows smooth motion. Pass 1 to draw the state exactly as it is.
+    // Nothing is allocated here in steady state: sprites are pre-scaled, the game over screen is a cached
+    // layer and text goes through reusable char buffers. g is drawn on directly rather than through a
+    // g.create() copy, so its color and font are left changed; only one font is set per frame because
+    // switching fonts on a Graphics allocates.
+    public void draw(Graphics g, float alpha) {
+        Graphics2D g2 = (Graphics2D) g;
+
+        int tileSize = engine.tileSize;
+        int boardWidth = viewWidth;
+
+        // Draw world (background scene): the cached maze chunks under the viewport, then the sprites on top
+        updateCamera(alpha);
+        updateChunks();
+        frame++;
+        int firstChunkCol = cameraX / chunkPixels;
+        int lastChunkCol = (cameraX + viewWidth - 1) / chunkPixels;
+        int firstChunkRow = cameraY / chunkPixels;
+        int lastChunkRow = (cameraY + viewHeight - 1) / chunkPixels;
+        for (int cr = firstChunkRow; cr <= lastChunkRow; cr++) {
+            for (int cc = firstChunkCol; cc <= lastChunkCol; cc++) {
+                int slot = slotFor(cr*chunkColumns + cc);
+                g2.drawImage(slotImages[slot], cc*chunkPixels - cameraX, cr*chunkPixels - cameraY, null);
+            }
+        }
+
+        GameEngine.Block pacman = engine.pacman;
+        drawSprite(g2, pacmanImage, pacman.prevX, pacman.prevY, pacman.x, pacman.y, alpha);
+        EntityStore ghosts = engine.ghosts;
+        for (int i = 0; i < ghosts.count; i++) {
+            drawSprite(g2, ghostImages[ghosts.sprite[i]], ghosts.prevX[i], ghosts.prevY[i], ghosts.x[i], ghosts.y[i], alpha);
+        }
+
+        // Draw HUD or Game Over overlay
+        if (!engine.gameOver) {
+            g2.setFont(hudFont);
+            g2.setColor(Color.WHITE);
+            //"x<lives> Score: <score>"
+            hudChars[0] = 'x';
+            int length = appendInt(hudChars, 1, engine.lives);
+            length = append(hudChars, length, SCORE_LABEL);
+            length = appendInt(hudChars, length, engine.score);
+            g2.drawChars(hudChars, 0, length, tileSize/2, tileSize/2);
+
+            if (showMetrics && metrics != null) {
+                g2.setColor(METRICS_COLOR);
+                int y = tileSize/2;
+                drawMetricsLine(g2, METRIC_LABELS[0], metrics.tick, y += METRICS_LINE_HEIGHT);
+                drawMetricsLine(g2, METRIC_LABELS[1], metrics.render, y += METRICS_LINE_HEIGHT);
+                drawMetricsLine(g2, METRIC_LABELS[2], metrics.frameInterval, y += METRICS_LINE_HEIGHT);
+                drawMetricsLine(g2, METRIC_LABELS[3], metrics.jitter, y += METRICS_LINE_HEIGHT);
+                drawMetricsLine(g2, METRIC_LABELS[4], metrics.gcPause, y += METRICS_LINE_HEIGHT);
+                drawMetricsLine(g2, METRIC_LABELS[5], metrics.turnLatency, y += METRICS_LINE_HEIGHT);
+            }
+        } else {
+            g2.drawImage(overlayLayer, 0, 0, null);
+
+            // Score text
+            g2.setFont(scoreFont);
+            int length = append(finalScoreChars, 0, FINAL_SCORE_LABEL);
+            length = appendInt(finalScoreChars, length, engine.score);
+            int sx = (boardWidth - scoreMetrics.charsWidth(finalScoreChars, 0, length)) / 2;
+            g2.setColor(SCORE_COLOR);
+            g2.drawChars(finalScoreChars, 0, length, sx, finalScoreY);
+        }
+
+    }
+
+    // "<label> n <count> p50 <us> p99 <us> max <us> us", through the reusable char buffer
+    private void drawMetricsLine(Graphics2D g2, String label, LatencyHistogram histogram, int y) {
+        char[] buf = metricsChars;
+        int length = append(buf, 0, label);
+        length = append(buf, length, " n ");
+        length = appendInt(buf, length, (int) Math.min(Integer.MAX_VALUE, histogram.count()));
+        length = append(buf, length, "  p50 ");
+        length = appendInt(buf, length, (int) Math.min(Integer.MAX_VALUE, GameMetrics.micros(histogram.percentile(0.5))));
+        length = append(buf, length, "  p99 ");
+        length = appendInt(buf, length, (int) Math.min(Integer.MAX_VALUE, GameMetrics.micros(histogram.percentile(0.99))));
+        length = append(buf, length, "  max ");
+        length = appendInt(buf, length, (int) Math.min(Integer.MAX_VALUE, GameMetrics.micros(histogram.max())));
+        length = append(buf, length, " us");
+        g2.drawChars(buf, 0, length, engine.tileSize/2, y);
+    }
+
+    // Writes text into buf at pos and returns the position after it
+    static int append(char[] buf, int pos, String text) {
+        text.getChars(0, text.length(), buf, pos);
+        return pos + text.length();
+    }
+
+    // Writes the decimal digits of a non-negative value into buf at pos and returns the position after them
+    static int appendInt(char[] buf, int pos, int value) {
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    // Draws a sprite where place() puts it, unless that is outside the viewport
+    private void drawSprite(Graphics2D g2, BufferedImage image, int prevX, int prevY, int x, int y, float alpha) {
+        place(prevX, prevY, x, y, alpha);
+        int screenX = spriteX - cameraX;
+        int screenY = spriteY - cameraY;
+        int size = engine.tileSize;
+        if (screenX + size <= 0 || screenX >= viewWidth || screenY + size <= 0 || screenY >= viewHeight) return;
+        g2.drawImage(image, screenX, screenY, null);
+    }
+
+    // Sets spriteX/spriteY to the board position of a sprite between its previous and current position
+    private void place(int prevX, int prevY, int x, int y, float alpha) {
+        int dx = x - prevX;
+        int dy = y - prevY;
+        //a jump of more than a tile is a reset to the start position, not movement to smooth out
+        if (alpha < 1f && Math.abs(dx) <= engine.tileSize && Math.abs(dy) <= engine.tileSize) {
+            x = prevX + Math.round(dx * alpha);
+            y = prevY + Math.round(dy * alpha);
+        }
+        spriteX = x;
+        spriteY = y;
+    }
+
+    // Point pacman's sprite the way it is now heading; called when the player turns
+    void updatePacmanImage() {
+        updatePacmanImage(engine.pacman.direction);
+    }
+
+    void updatePacmanImage(char direction) {
+        if (direction == 'U') {
+            pacmanImage = pacmanUpImage;
+        }
+        else if (direction == 'D') {
+            pacmanImage = pacmanDownImage;
+        }
+        else if (direction == 'L') {
+            pacmanImage = pacmanLeftImage;
+        }
+        else if (direction == 'R') {
+            pacmanImage = pacmanRightImage;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Hosts many independent headless games in one JVM. Every TCP connection on the loopback port is one
+// GameSession. One I/O thread accepts connections and reads input through a Selector; the sessions are
+// spread over a small pool of shard threads (one per core by default), each stepping all of its sessions
+// once per tick at a fixed rate. Tick lag is how long after its scheduled time a session's tick started.
+//
+// Protocol (big endian). Client to server:
+//   'S' long seed   start the session's game (first message, once)
+//   'U' 'D' 'L' 'R' turn, applied on the next tick
+//   'N'             restart after game over
+//   'Q'             end the session
+// Server to client, after every tick: a status frame, see GameSession.sendStatus()
+//
+// Usage: java GameServer [port=7777] [threads=<cores>] [tickMillis=50]
+public class GameServer {
+    static final byte START = 'S';
+    static final byte RESTART = 'N';
+    static final byte QUIT = 'Q';
+    static final byte STATUS = 'T';
+    static final int STATUS_SIZE = 23;
+
+    int port = 7777;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long tickNanos = 50_000_000L;
+    int maxCatchUpTicks = 5; //a shard further behind than this drops the missed ticks instead of bursting
+
+    private Shard[] shards;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private volatile boolean running = false;
+
+    public static void main(String[] args) throws IOException {
+        GameServer gameServer = new GameServer();
+        for (String arg : args) {
+            if (arg.startsWith("port=")) gameServer.port = Integer.parseInt(arg.substring(5));
+            else if (arg.startsWith("threads=")) gameServer.threads = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("tickMillis=")) gameServer.tickNanos = Long.parseLong(arg.substring(11)) * 1_000_000L;
+        }
+        gameServer.start();
+        System.out.printf("listening on 127.0.0.1:%d with %d shard threads%n", gameServer.port, gameServer.threads);
+        while (true) {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            gameServer.printStats();
+        }
+    }
+
+    // Binds the port and starts the I/O and shard threads
+    void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port), 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+
+        shards = new Shard[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard();
+            Thread thread = new Thread(shards[i], "GameServer shard " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread io = new Thread(this::ioLoop, "GameServer I/O");
+        io.setDaemon(true);
+        io.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    int sessionCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.size;
+        }
+        return count;
+    }
+
+    // Sessions, tick lag, skipped ticks and dropped status frames since the last call. The histograms are read while the shards record into
+    // them, so a report can be off by the ticks that land during the read.
+    void printStats() {
+        long ticks = 0;
+        long skipped = 0;
+        long dropped = 0;
+        long lag99 = 0;
+        long lagMax = 0;
+        for (Shard shard : shards) {
+            ticks += shard.lag.count();
+            skipped += shard.skippedTicks;
+            dropped += shard.droppedFrames;
+            lag99 = Math.max(lag99, shard.lag.percentile(0.99));
+            lagMax = Math.max(lagMax, shard.lag.max());
+            shard.resetRequested = true;
+        }
+        System.out.printf("sessions %d, ticks %d, tick lag p99 %d us (worst shard), max %d us, skipped ticks %d, dropped frames %d%n",
+                sessionCount(), ticks, lag99 / 1000, lagMax / 1000, skipped, dropped);
+    }
+
+    private void ioLoop() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                selector.close();
+                server.close();
+            } catch (IOException e) {
+                //shutting down anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            GameSession session = new GameSession(channel);
+            channel.register(selector, SelectionKey.OP_READ, session);
+        }
+    }
+
+    private void read(SelectionKey key) {
+        GameSession session = (GameSession) key.attachment();
+        ByteBuffer in = session.in;
+        try {
+            if (session.closed || session.channel.read(in) < 0) {
+                close(key, session);
+                return;
+            }
+        } catch (IOException e) {
+            close(key, session);
+            return;
+        }
+        in.flip();
+        while (in.hasRemaining()) {
+            byte type = in.get(in.position());
+            if (type == START) {
+                if (in.remaining() < 9) break;
+                in.get();
+                long seed = in.getLong();
+                if (session.engine == null) {
+                    session.engine = new GameEngine(seed);
+                    leastLoadedShard().joining.add(session);
+                }
+            } else {
+                in.get();
+                if (type == 'U' || type == 'D' || type == 'L' || type == 'R') {
+                    session.pendingInput.set(type);
+                } else if (type == RESTART) {
+                    session.restartRequested = true;
+                } else if (type == QUIT) {
+                    close(key, session);
+                    return;
+                }
+                //anything else is ignored
+            }
+        }
+        in.compact();
+    }
+
+    // The owning shard drops the session on its next round once closed is set
+    private void close(SelectionKey key, GameSession session) {
+        session.closed = true;
+        key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            //already closed
+        }
+    }
+
+    private Shard leastLoadedShard() {
+        Shard best = shards[0];
+        for (Shard shard : shards) {
+            if (shard.size + shard.joining.size() < best.size + best.joining.size()) best = shard;
+        }
+        return best;
+    }
+
+    // A thread stepping its sessions once per tick. New sessions are handed over through a concurrent queue
+    // and picked up at the start of a round; everything else is only touched by this thread.
+    class Shard implements Runnable {
+        final ArrayList<GameSession> sessions = new ArrayList<GameSession>();
+        final ConcurrentLinkedQueue<GameSession> joining = new ConcurrentLinkedQueue<GameSession>();
+        final LatencyHistogram lag = new LatencyHistogram();
+        volatile int size = 0;
+        volatile long skippedTicks = 0; //ticks given up on after a stall, since the last stats reset
+        volatile long droppedFrames = 0; //status frames not sent because the client was behind, same interval
+        volatile boolean resetRequested = false;
+
+        @Override
+        public void run() {
+            long deadline = System.nanoTime() + tickNanos;
+            while (running) {
+                long now = System.nanoTime();
+                if (now < deadline) {
+                    LockSupport.parkNanos(deadline - now);
+                    continue;
+                }
+                if (now - deadline > maxCatchUpTicks * tickNanos) {
+                    long behind = (now - deadline) / tickNanos;
+                    skippedTicks += behind;
+                    deadline += behind * tickNanos;
+                }
+                if (resetRequested) {
+                    resetRequested = false;
+                    lag.reset();
+                    skippedTicks = 0;
+                    droppedFrames = 0;
+                }
+
+                GameSession joined;
+                while ((joined = joining.poll()) != null) {
+                    sessions.add(joined);
+                }
+                //step every session, dropping closed ones by moving the last session into their place
+                for (int i = 0; i < sessions.size(); i++) {
+                    GameSession session = sessions.get(i);
+                    if (session.closed) {
+                        sessions.set(i, sessions.get(sessions.size() - 1));
+                        sessions.remove(sessions.size() - 1);
+                        i--;
+                        continue;
+                    }
+                    long lagNanos = System.nanoTime() - deadline;
+                    lag.record(lagNanos);
+                    if (!session.tick(lagNanos)) {
+                        droppedFrames++;
+                    }
+                }
+                size = sessions.size();
+                deadline += tickNanos;
+            }
+        }
+    }
+}
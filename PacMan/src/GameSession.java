@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One game hosted by GameServer: its own GameEngine plus the connection of the client playing it.
+// The server's I/O thread fills in input from the socket; the shard thread that owns the session is the
+// only one to step the engine and write status frames back, so the engine needs no locking.
+public class GameSession {
+    SocketChannel channel;
+    GameEngine engine; //null until the client's START message has arrived
+
+    //written by the I/O thread, consumed by the next tick. The input is taken with getAndSet, so a direction
+    //arriving while a tick runs is kept for the next one instead of being cleared unseen.
+    final AtomicInteger pendingInput = new AtomicInteger();
+    volatile boolean restartRequested = false;
+    volatile boolean closed = false;
+
+    final ByteBuffer in = ByteBuffer.allocate(64); //unparsed bytes from the client (I/O thread only)
+    final ByteBuffer out = ByteBuffer.allocate(GameServer.STATUS_SIZE); //status frame being sent (shard thread only)
+
+    GameSession(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    // Applies pending input, steps the engine and sends the new status; lagNanos is how late this tick ran.
+    // Returns false when the status frame was dropped because the client is not reading fast enough.
+    boolean tick(long lagNanos) {
+        if (restartRequested) {
+            restartRequested = false;
+            //a client sends one per game over frame it sees, so a late second one must not wipe the new game
+            if (engine.gameOver) {
+                engine.restart();
+            }
+        }
+        engine.step((char) pendingInput.getAndSet(0));
+        return sendStatus(lagNanos);
+    }
+
+    // Status frame: byte 'T', int tick, int score, byte lives, byte game over, int pacman x, int pacman y,
+    // int tick lag in microseconds. A client that cannot keep up misses frames rather than queueing them.
+    private boolean sendStatus(long lagNanos) {
+        try {
+            if (out.hasRemaining() && out.position() > 0) {
+                channel.write(out); //finish the previous frame first
+                if (out.hasRemaining()) {
+                    return false;
+                }
+            }
+            out.clear();
+            out.put(GameServer.STATUS);
+            out.putInt(engine.tick);
+            out.putInt(engine.score);
+            out.put((byte) Math.min(engine.lives, 127));
+            out.put((byte) (engine.gameOver ? 1 : 0));
+            out.putInt(engine.pacman.x);
+            out.putInt(engine.pacman.y);
+            out.putInt((int) Math.min(Integer.MAX_VALUE, lagNanos / 1000));
+            out.flip();
+            channel.write(out);
+        } catch (IOException e) {
+            closed = true; //the client went away; the I/O thread cleans up the channel
+        }
+        return true;
+    }
+}
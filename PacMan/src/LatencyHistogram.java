@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+// Histogram of durations in nanoseconds with a fixed set of buckets, so recording is a few arithmetic
+// operations and an array increment, never an allocation. Buckets are logarithmic with 16 linear
+// sub-buckets per power of two: a percentile is reported at most about 6% above the true value.
+// Meant to be recorded into by one thread; other threads (JMX) reading it may see slightly stale counts.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40; //2^40 ns is about 18 minutes; longer values land in the last bucket
+
+    private final long[] counts = new long[(MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[bucket(nanos)]++;
+        count++;
+        if (nanos > max) max = nanos;
+    }
+
+    long count() {
+        return count;
+    }
+
+    long max() {
+        return max;
+    }
+
+    // Smallest value that at least fraction (0..1) of the recorded values are at or below, 0 when empty
+    long percentile(double fraction) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, upperBound(i));
+        }
+        return max;
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0L);
+        count = 0;
+        max = 0;
+    }
+
+    // Values below 16 get a bucket each; above that, 16 buckets per power of two
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value that falls into the bucket
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
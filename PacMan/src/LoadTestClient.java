@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+// Opens many sessions on a GameServer over loopback and plays them with random input, then reports how
+// many sessions are actually being ticked at full rate and the tick lag the server reports in its status
+// frames. Everything runs on one thread with a Selector, so the client itself stays cheap.
+//
+// Usage: java LoadTestClient [port=7777] [sessions=1000] [seconds=30] [rampPerSecond=2000] [tickMillis=50]
+public class LoadTestClient {
+    int port = 7777;
+    int sessions = 1000;
+    int seconds = 30;
+    int rampPerSecond = 2000; //new connections per second, so the server is not hit with one huge burst
+    long tickMillis = 50; //the server's tick, to know how many status frames each session should receive
+
+    static class Connection {
+        SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        long frames; //status frames received this report interval
+    }
+
+    public static void main(String[] args) throws IOException {
+        LoadTestClient client = new LoadTestClient();
+        for (String arg : args) {
+            if (arg.startsWith("port=")) client.port = Integer.parseInt(arg.substring(5));
+            else if (arg.startsWith("sessions=")) client.sessions = Integer.parseInt(arg.substring(9));
+            else if (arg.startsWith("seconds=")) client.seconds = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("rampPerSecond=")) client.rampPerSecond = Integer.parseInt(arg.substring(14));
+            else if (arg.startsWith("tickMillis=")) client.tickMillis = Long.parseLong(arg.substring(11));
+        }
+        System.exit(client.run() ? 0 : 1);
+    }
+
+    // Returns true when every session kept receiving at least 90% of its status frames in the last interval
+    boolean run() throws IOException {
+        Selector selector = Selector.open();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        Random random = new Random(42);
+        ByteBuffer message = ByteBuffer.allocate(9);
+        LatencyHistogram lag = new LatencyHistogram(); //server reported tick lag, per report interval
+        LatencyHistogram total = new LatencyHistogram(); //the same over the whole run
+
+        Connection[] connections = new Connection[sessions];
+        int opened = 0;
+        long start = System.nanoTime();
+        long nextReport = start + 1_000_000_000L;
+        long end = start + seconds * 1_000_000_000L;
+        boolean healthy = false;
+
+        while (System.nanoTime() < end) {
+            //ramp up: open as many connections as the elapsed time allows
+            long allowed = Math.min(sessions, (System.nanoTime() - start) * rampPerSecond / 1_000_000_000L + 1);
+            while (opened < allowed) {
+                Connection connection = new Connection();
+                connection.channel = SocketChannel.open(address);
+                connection.channel.socket().setTcpNoDelay(true);
+                message.clear();
+                message.put(GameServer.START).putLong(opened).flip();
+                while (message.hasRemaining()) connection.channel.write(message);
+                connection.channel.configureBlocking(false);
+                connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                connections[opened++] = connection;
+            }
+
+            selector.select(10);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                ByteBuffer in = connection.in;
+                if (connection.channel.read(in) < 0) {
+                    key.cancel();
+                    continue;
+                }
+                in.flip();
+                while (in.remaining() >= GameServer.STATUS_SIZE) {
+                    in.get(); //'T'
+                    int tick = in.getInt();
+                    in.getInt(); //score
+                    in.get(); //lives
+                    boolean gameOver = in.get() != 0;
+                    in.getInt(); //pacman x
+                    in.getInt(); //pacman y
+                    long lagNanos = in.getInt() * 1000L;
+                    lag.record(lagNanos);
+                    total.record(lagNanos);
+                    connection.frames++;
+
+                    byte reply = 0;
+                    if (gameOver) reply = GameServer.RESTART;
+                    else if (tick % 7 == 0) reply = (byte) "UDLR".charAt(random.nextInt(4));
+                    if (reply != 0) {
+                        message.clear();
+                        message.put(reply).flip();
+                        connection.channel.write(message); //one byte always fits unless the socket is broken
+                    }
+                }
+                in.compact();
+            }
+
+            long now = System.nanoTime();
+            if (now >= nextReport) {
+                healthy = report(connections, opened, lag, (now - nextReport + 1_000_000_000L) / 1e9);
+                lag.reset();
+                nextReport = now + 1_000_000_000L;
+            }
+        }
+
+        for (int i = 0; i < opened; i++) {
+            connections[i].channel.close();
+        }
+        selector.close();
+        System.out.printf("run: %d sessions, tick lag p50 %d us, p99 %d us, p99.9 %d us, max %d us%n", opened,
+                total.percentile(0.5) / 1000, total.percentile(0.99) / 1000, total.percentile(0.999) / 1000, total.max() / 1000);
+        System.out.println(healthy ? "PASS: all sessions ticked at full rate" : "FAIL: sessions fell behind");
+        return healthy;
+    }
+
+    // One line per interval: sessions open, sessions that got at least 90% of their expected status
+    // frames, and the tick lag reported by the server
+    private boolean report(Connection[] connections, int opened, LatencyHistogram lag, double intervalSeconds) {
+        long expected = (long) (intervalSeconds * 1000 / tickMillis);
+        int fullRate = 0;
+        long frames = 0;
+        for (int i = 0; i < opened; i++) {
+            if (connections[i].frames >= expected * 9 / 10) fullRate++;
+            frames += connections[i].frames;
+            connections[i].frames = 0;
+        }
+        System.out.printf("sessions %d, at full rate %d, frames/s %.0f, tick lag p50 %d us, p99 %d us, max %d us%n",
+                opened, fullRate, frames / intervalSeconds, lag.percentile(0.5) / 1000, lag.percentile(0.99) / 1000, lag.max() / 1000);
+        return opened == sessions && fullRate == opened;
+    }
+}
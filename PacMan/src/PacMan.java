@@ -1,485 +1,318 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.util.HashSet;
-import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.*;
 
-public class PacMan extends JPanel implements ActionListener, KeyListener {
-    class Block {
-        int x;
-        int y;
-        int width;
-        int height;
-        Image image;
-
-        int startX;
-        int startY;
-        char direction = 'U'; // U D L R
-        int velocityX = 0;
-        int velocityY = 0;
-
-        Block(Image image, int x, int y, int width, int height) {
-            this.image = image;
-            this.x = x;
-            this.y = y;
-            this.width = width;
-            this.height = height;
-            this.startX = x;
-            this.startY = y;
-        }
-
-        void updateDirection(char direction) {
-            char prevDirection = this.direction;
-            this.direction = direction;
-            updateVelocity();
-            this.x += this.velocityX;
-            this.y += this.velocityY;
-            for (Block wall : walls) {
-                if (collision(this, wall)) {
-                    this.x -= this.velocityX;
-                    this.y -= this.velocityY;
-                    this.direction = prevDirection;
-                    updateVelocity();
-                }
-            }
-        }
-
-        // Set direction without immediately moving (useful when choosing a new direction at tile centers)
-        void setDirection(char direction) {
-            this.direction = direction;
-            updateVelocity();
-        }
-
-        void updateVelocity() {
-            if (this.direction == 'U') {
-                this.velocityX = 0;
-                this.velocityY = -tileSize/4;
-            }
-            else if (this.direction == 'D') {
-                this.velocityX = 0;
-                this.velocityY = tileSize/4;
-            }
-            else if (this.direction == 'L') {
-                this.velocityX = -tileSize/4;
-                this.velocityY = 0;
-            }
-            else if (this.direction == 'R') {
-                this.velocityX = tileSize/4;
-                this.velocityY = 0;
-            }
-        }
-
-        void reset() {
-            this.x = this.startX;
-            this.y = this.startY;
+// The Swing panel. The game runs on its own simulation thread at a fixed 20 ticks/sec while Swing paints on
+// the EDT, and the two share no mutable state, so a slow paint never delays a tick or the other way around:
+//  - key events go to the simulation thread through a lock-free queue (inputs)
+//  - after every tick the simulation thread copies the engine into a render buffer and swaps it into
+//    ready; paintComponent swaps the newest one out and draws that copy. Three buffers go round (one being
+//    written, one waiting, one being drawn), so neither side ever waits for the other or allocates.
+// The simulation thread starts when the panel is added to a window and stops when it is removed (or stop()).
+public class PacMan extends JPanel implements Runnable, KeyListener {
+    GameEngine engine; //owned by the simulation thread once it has started
+    GameRenderer renderer; //owned by the EDT, draws the render buffers
+    ReplayPlayer replay; //when set, input comes from the recording instead of the keyboard
+    SnapshotDecoder spectator; //when set, the engine mirrors a remote game instead of being stepped
+    Autopilot autopilot; //when set, pacman is played by tree search instead of the keyboard, game after game
+    GameMetrics metrics = new GameMetrics();
+
+    long tickNanos = 50_000_000L; //20 ticks/sec
+    int maxCatchUpTicks = 5; //after a long stall, drop time beyond this many ticks instead of fast-forwarding
+
+    private Thread loopThread;
+    private volatile boolean running = false;
+
+    // A copy of the engine handed from the simulation thread to the EDT
+    static class RenderBuffer {
+        final GameEngine state;
+        char facing; //direction pacman's sprite points in, which only follows the player's turns
+        volatile long seq; //publish count when it was written, so the EDT can tell a newer one
+
+        RenderBuffer(GameEngine engine) {
+            state = engine.fork();
         }
     }
 
-    private int rowCount = 21;
-    private int columnCount = 19;
-    private int tileSize = 32;
-    private int boardWidth = columnCount * tileSize;
-    private int boardHeight = rowCount * tileSize;
+    private final AtomicReference<RenderBuffer> ready;
+    private RenderBuffer back; //simulation thread only: the buffer written next
+    private RenderBuffer front; //EDT only: the buffer drawn
+    private long published = 0;
 
-    private Image wallImage;
-    private Image blueGhostImage;
-    private Image orangeGhostImage;
-    private Image pinkGhostImage;
-    private Image redGhostImage;
+    //directions from key presses and RESTART, from the EDT to the simulation thread. Characters below 128 are
+    //cached boxes, so a key press only costs the queue node.
+    private final ConcurrentLinkedQueue<Character> inputs = new ConcurrentLinkedQueue<Character>();
+    static final char RESTART = '*';
 
-    private Image pacmanUpImage;
-    private Image pacmanDownImage;
-    private Image pacmanLeftImage;
-    private Image pacmanRightImage;
+    //simulation thread only
+    private char facing = 'R';
+    private int cameraX; //viewport position after the last tick, to tell when a tick scrolled
+    private int cameraY;
+    private Rectangle dirty = new Rectangle(); //area that changed during the last tick
+    private boolean turnPending = false; //a key press is waiting for its turn to be taken
 
-    //X = wall, O = skip, P = pac man, ' ' = food
-    //Ghosts: b = blue, o = orange, p = pink, r = red
-    private String[] tileMap = {
-        "XXXXXXXXXXXXXXXXXXX",
-        "X        X        X",
-        "X XX XXX X XXX XX X",
-        "X                 X",
-        "X XX X XXXXX X XX X",
-        "X    X       X    X",
-        "XXXX XXXX XXXX XXXX",
-        "OOOX X       X XOOO",
-        "XXXX X XXrXX X XXXX",
-        "O       bpo       O",
-        "XXXX X XXXXX X XXXX",
-        "OOOX X       X XOOO",
-        "XXXX X XXXXX X XXXX",
-        "X        X        X",
-        "X XX XXX X XXX XX X",
-        "X  X     P     X  X",
-        "XX X X XXXXX X X XX",
-        "X    X   X   X    X",
-        "X XXXXXX X XXXXXX X",
-        "X                 X",
-        "XXXXXXXXXXXXXXXXXXX" 
-    };
+    //key to turn latency: the first press of an arrow key is timed until the engine takes the turn
+    private char heldDirection = 0; //EDT only: arrow key held down, whose repeats are not new presses
+    private volatile long turnPressNanos;
 
-    HashSet<Block> walls;
-    HashSet<Block> foods;
-    HashSet<Block> ghosts;
-    Block pacman;
+    PacMan() {
+        this(new GameEngine());
+    }
 
-    Timer gameLoop;
-    char[] directions = {'U', 'D', 'L', 'R'}; //up down left right
-    Random random = new Random();
-    int score = 0;
-    int lives = 3;
-    boolean gameOver = false;
+    PacMan(GameEngine engine) {
+        this(engine, SpriteAtlas.load(null, engine.tileSize, 0));
+    }
 
-    PacMan() {
-        setPreferredSize(new Dimension(boardWidth, boardHeight));
+    PacMan(GameEngine engine, SpriteAtlas atlas) {
+        this.engine = engine;
+        renderer = new GameRenderer(engine, this, atlas);
+        renderer.metrics = metrics;
+        setPreferredSize(new Dimension(renderer.viewWidth, renderer.viewHeight));
         setBackground(Color.BLACK);
         addKeyListener(this);
         setFocusable(true);
 
-        //load images
-        wallImage = new ImageIcon(getClass().getResource("./wall.png")).getImage();
-        blueGhostImage = new ImageIcon(getClass().getResource("./blueGhost.png")).getImage();
-        orangeGhostImage = new ImageIcon(getClass().getResource("./orangeGhost.png")).getImage();
-        pinkGhostImage = new ImageIcon(getClass().getResource("./pinkGhost.png")).getImage();
-        redGhostImage = new ImageIcon(getClass().getResource("./redGhost.png")).getImage();
-
-        pacmanUpImage = new ImageIcon(getClass().getResource("./pacmanUp.png")).getImage();
-        pacmanDownImage = new ImageIcon(getClass().getResource("./pacmanDown.png")).getImage();
-        pacmanLeftImage = new ImageIcon(getClass().getResource("./pacmanLeft.png")).getImage();
-        pacmanRightImage = new ImageIcon(getClass().getResource("./pacmanRight.png")).getImage();
-
-        loadMap();
-        for (Block ghost : ghosts) {
-            char newDirection = directions[random.nextInt(4)];
-            ghost.setDirection(newDirection);
-        }
-        //how long it takes to start timer, milliseconds gone between frames
-        gameLoop = new Timer(50, this); //20fps (1000/50)
-        gameLoop.start();
+        front = new RenderBuffer(engine);
+        ready = new AtomicReference<RenderBuffer>(new RenderBuffer(engine));
+        back = new RenderBuffer(engine);
+        front.facing = facing;
+        ready.get().facing = facing;
+        renderer.engine = front.state;
+        cameraX = GameRenderer.camera(engine.pacman.x, engine.boardWidth, renderer.viewWidth, engine.tileSize);
+        cameraY = GameRenderer.camera(engine.pacman.y, engine.boardHeight, renderer.viewHeight, engine.tileSize);
+    }
 
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        start();
     }
 
-    public void loadMap() {
-        walls = new HashSet<Block>();
-        foods = new HashSet<Block>();
-        ghosts = new HashSet<Block>();
+    @Override
+    public void removeNotify() {
+        stop();
+        super.removeNotify();
+    }
 
-        for (int r = 0; r < rowCount; r++) {
-            for (int c = 0; c < columnCount; c++) {
-                String row = tileMap[r];
-                char tileMapChar = row.charAt(c);
+    // Starts the simulation thread; replay, spectator and autopilot must be set before
+    public void start() {
+        if (running) return;
+        running = true;
+        loopThread = new Thread(this, "PacMan simulation");
+        loopThread.setDaemon(true);
+        loopThread.start();
+    }
 
-                int x = c*tileSize;
-                int y = r*tileSize;
+    // Stops the simulation and waits for its current tick to finish, so the engine can be used afterwards
+    public void stop() {
+        running = false;
+        if (loopThread != null && loopThread != Thread.currentThread()) {
+            try {
+                loopThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-                if (tileMapChar == 'X') { //block wall
-                    Block wall = new Block(wallImage, x, y, tileSize, tileSize);
-                    walls.add(wall);
-                }
-                else if (tileMapChar == 'b') { //blue ghost
-                    Block ghost = new Block(blueGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'o') { //orange ghost
-                    Block ghost = new Block(orangeGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'p') { //pink ghost
-                    Block ghost = new Block(pinkGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'r') { //red ghost
-                    Block ghost = new Block(redGhostImage, x, y, tileSize, tileSize);
-                    ghosts.add(ghost);
-                }
-                else if (tileMapChar == 'P') { //pacman
-                    pacman = new Block(pacmanRightImage, x, y, tileSize, tileSize);
-                }
-                else if (tileMapChar == ' ') { //food
-                    Block food = new Block(null, x + 14, y + 14, 4, 4);
-                    foods.add(food);
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (running) {
+            tick();
+            next += tickNanos;
+            long now = System.nanoTime();
+            if (now - next > maxCatchUpTicks * tickNanos) {
+                next = now; //stalled too long: carry on from here rather than fast-forwarding
+            }
+            long sleep = next - now;
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1_000_000L, (int) (sleep % 1_000_000L));
+                } catch (InterruptedException e) {
+                    running = false; //so start() can start a new thread
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
     }
 
     public void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
         draw(g);
+        metrics.frame(start, System.nanoTime() - start);
     }
 
+    // Draws the newest render buffer. The buffer being drawn is never written, so this needs no lock.
     public void draw(Graphics g) {
-        // Use Graphics2D for nicer effects (overlay, gradients, alpha)
-        Graphics2D g2 = (Graphics2D) g.create();
+        if (ready.get().seq > front.seq) {
+            front = ready.getAndSet(front);
+        }
+        renderer.engine = front.state;
+        renderer.updatePacmanImage(front.facing);
+        renderer.draw(g, 1f);
+    }
 
-        // Draw world (background scene)
-        g2.drawImage(pacman.image, pacman.x, pacman.y, pacman.width, pacman.height, null);
+    // Simulation thread: copies the engine into the back buffer and swaps it with the one waiting for the EDT.
+    // A paint that has not taken the waiting buffer yet gets this newer one instead.
+    void publish() {
+        RenderBuffer buffer = back;
+        buffer.state.copyFrom(engine);
+        buffer.facing = facing;
+        buffer.seq = ++published;
+        back = ready.getAndSet(buffer);
+    }
 
-        for (Block ghost : ghosts) {
-            g2.drawImage(ghost.image, ghost.x, ghost.y, ghost.width, ghost.height, null);
+    private void tick() {
+        char input = 0;
+        boolean restart = false;
+        for (Character queued = inputs.poll(); queued != null; queued = inputs.poll()) {
+            if (queued == RESTART) {
+                restart = true;
+            } else {
+                input = queued; //the engine takes one direction per tick, the newest wins
+            }
         }
-
-        for (Block wall : walls) {
-            g2.drawImage(wall.image, wall.x, wall.y, wall.width, wall.height, null);
+        if (restart && engine.gameOver && replay == null && spectator == null) {
+            engine.restart();
+            publish();
+            repaint();
+            return;
         }
-
-        g2.setColor(Color.WHITE);
-        for (Block food : foods) {
-            g2.fillRect(food.x, food.y, food.width, food.height);
+        if (engine.gameOver && replay == null && spectator == null && autopilot == null) {
+            return; //waiting for a key to restart
         }
-
-        // Draw HUD or Game Over overlay
-        g2.setFont(new Font("Arial", Font.PLAIN, 18));
-        if (!gameOver) {
-            g2.setColor(Color.WHITE);
-            g2.drawString("x" + String.valueOf(lives) + " Score: " + String.valueOf(score), tileSize/2, tileSize/2);
-        } else {
-            // Dim the whole scene
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.75f));
-            g2.setColor(new Color(0, 0, 0, 200));
-            g2.fillRect(0, 0, boardWidth, boardHeight);
-
-            // Add a soft spotlight (lighting) behind the game over panel
-            int cx = boardWidth / 2;
-            int cy = boardHeight / 2 - 40;
-            int radius = Math.max(boardWidth, boardHeight) / 3;
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.18f));
-            g2.setPaint(Color.WHITE);
-            g2.fillOval(cx - radius, cy - radius, radius * 2, radius * 2);
-
-            // Reset composite for panel drawing
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-
-            // Centered panel with gradient background
-            int panelW = Math.min(500, boardWidth - 80);
-            int panelH = 220;
-            int px = (boardWidth - panelW) / 2;
-            int py = (boardHeight - panelH) / 2;
-            GradientPaint gp = new GradientPaint(px, py, new Color(60, 60, 60, 230), px, py + panelH, new Color(20, 20, 20, 230));
-            g2.setPaint(gp);
-            g2.fillRoundRect(px, py, panelW, panelH, 24, 24);
-
-            // Panel border (glow)
-            g2.setStroke(new BasicStroke(4f));
-            g2.setColor(new Color(255, 200, 60, 200));
-            g2.drawRoundRect(px, py, panelW, panelH, 24, 24);
-
-            // Title: GAME OVER
-            Font titleFont = new Font("Arial", Font.BOLD, 48);
-            g2.setFont(titleFont);
-            FontMetrics fm = g2.getFontMetrics();
-            String title = "GAME OVER";
-            int tx = (boardWidth - fm.stringWidth(title)) / 2;
-            int ty = py + 70;
-            g2.setColor(Color.WHITE);
-            g2.drawString(title, tx, ty);
-
-            // Score text
-            Font scoreFont = new Font("Arial", Font.PLAIN, 28);
-            g2.setFont(scoreFont);
-            fm = g2.getFontMetrics();
-            String scoreText = "Final Score: " + score;
-            int sx = (boardWidth - fm.stringWidth(scoreText)) / 2;
-            int sy = ty + 50;
-            g2.setColor(new Color(220, 220, 220));
-            g2.drawString(scoreText, sx, sy);
-
-            // Restart hint
-            Font hintFont = new Font("Arial", Font.PLAIN, 18);
-            g2.setFont(hintFont);
-            fm = g2.getFontMetrics();
-            String hint = "Press any key to restart";
-            int hx = (boardWidth - fm.stringWidth(hint)) / 2;
-            int hy = py + panelH - 28;
-            g2.setColor(new Color(200, 200, 200, 200));
-            g2.drawString(hint, hx, hy);
+        if (input != 0) {
+            turnPending = true;
         }
 
-          g2.dispose();
-      }
-
-    public void move() {
-        pacman.x += pacman.velocityX;
-        pacman.y += pacman.velocityY;
-
-        //check wall collisions
-        for (Block wall : walls) {
-            if (collision(pacman, wall)) {
-                pacman.x -= pacman.velocityX;
-                pacman.y -= pacman.velocityY;
-                break;
-            }
+        int mapVersion = engine.mapVersion;
+        int score = engine.score;
+        int lives = engine.lives;
+        boolean gameOver = engine.gameOver;
+        int turnsTaken = engine.turnsTaken;
+        if (autopilot != null) {
+            input = autopilot.decide(engine); //searched before the tick is timed
         }
-
-        // check ghost collisions and move ghosts
-        for (Block ghost : ghosts) {
-            if (collision(ghost, pacman)) {
-                lives -= 1;
-                if (lives == 0) {
-                    gameOver = true;
-                    return;
-                }
-                resetPositions();
-                break;
-            }
-
-            // If the ghost is exactly aligned with the tile grid, pick a new direction among valid moves
-            boolean atTile = (ghost.x % tileSize == 0) && (ghost.y % tileSize == 0);
-            if (atTile) {
-                // compute tile-aligned position
-                int gx = ghost.x;
-                int gy = ghost.y;
-                // opposite direction map to avoid immediate backtracking
-                char opposite = ' ';
-                if (ghost.direction == 'U') opposite = 'D';
-                else if (ghost.direction == 'D') opposite = 'U';
-                else if (ghost.direction == 'L') opposite = 'R';
-                else if (ghost.direction == 'R') opposite = 'L';
-
-                java.util.ArrayList<Character> choices = new java.util.ArrayList<Character>();
-                // check each direction for wall presence one tile ahead
-                // Up
-                if (!isWallAt(gx, gy - tileSize) && opposite != 'U') choices.add('U');
-                // Down
-                if (!isWallAt(gx, gy + tileSize) && opposite != 'D') choices.add('D');
-                // Left
-                if (!isWallAt(gx - tileSize, gy) && opposite != 'L') choices.add('L');
-                // Right
-                if (!isWallAt(gx + tileSize, gy) && opposite != 'R') choices.add('R');
-
-                if (choices.size() == 0) {
-                    // no choice except possibly backtracking
-                    if (!isWallAt(gx, gy - tileSize)) ghost.setDirection('U');
-                    else if (!isWallAt(gx, gy + tileSize)) ghost.setDirection('D');
-                    else if (!isWallAt(gx - tileSize, gy)) ghost.setDirection('L');
-                    else if (!isWallAt(gx + tileSize, gy)) ghost.setDirection('R');
-                    // else stuck — keep current direction
-                } else {
-                    char pick = choices.get(random.nextInt(choices.size()));
-                    ghost.setDirection(pick);
-                }
-            }
-
-            // move by velocity
-            ghost.x += ghost.velocityX;
-            ghost.y += ghost.velocityY;
-
-            // if collisions with walls or world bounds after moving, step back and choose a new valid direction
-            boolean bumped = false;
-            for (Block wall : walls) {
-                if (collision(ghost, wall)) {
-                    bumped = true;
-                    break;
-                }
-            }
-            if (ghost.x <= 0 || ghost.x + ghost.width >= boardWidth) bumped = true;
-            if (bumped) {
-                ghost.x -= ghost.velocityX;
-                ghost.y -= ghost.velocityY;
-                // force choose new direction (allow backtracking now)
-                java.util.ArrayList<Character> choices2 = new java.util.ArrayList<Character>();
-                if (!isWallAt(ghost.x, ghost.y - tileSize)) choices2.add('U');
-                if (!isWallAt(ghost.x, ghost.y + tileSize)) choices2.add('D');
-                if (!isWallAt(ghost.x - tileSize, ghost.y)) choices2.add('L');
-                if (!isWallAt(ghost.x + tileSize, ghost.y)) choices2.add('R');
-                if (!choices2.isEmpty()) {
-                    ghost.setDirection(choices2.get(random.nextInt(choices2.size())));
-                }
+        long start = System.nanoTime();
+        if (replay != null) {
+            if (!replay.step(engine)) {
+                running = false;
             }
+            input = replay.lastInput;
+        } else if (spectator != null) {
+            spectator.poll(engine);
+            input = engine.pacman.direction; //the remote player may have turned
+        } else {
+            engine.step(input);
         }
-
-        //check food collision
-        Block foodEaten = null;
-        for (Block food : foods) {
-            if (collision(pacman, food)) {
-                foodEaten = food;
-                score += 10;
-            }
+        metrics.tick(System.nanoTime() - start);
+        //a turn asked for earlier may only find its opening now, so the image follows the turns taken
+        if (input != 0 || engine.turnsTaken != turnsTaken) {
+            facing = engine.pacman.direction;
         }
-        foods.remove(foodEaten);
-
-        if (foods.isEmpty()) {
-            loadMap();
-            resetPositions();
+        if (turnPending && engine.turnsTaken != turnsTaken) {
+            metrics.turn(turnPressNanos, engine.lastTurnTicks);
+            turnPending = false;
         }
-    }
-
-    public boolean collision(Block a, Block b) {
-        return  a.x < b.x + b.width &&
-                a.x + a.width > b.x &&
-                a.y < b.y + b.height &&
-                a.y + a.height > b.y;
-    }
-
-    // Return true if there is a wall occupying the tile at pixel coordinate (x,y)
-    private boolean isWallAt(int x, int y) {
-        for (Block wall : walls) {
-            if (x >= wall.x && x < wall.x + wall.width && y >= wall.y && y < wall.y + wall.height) return true;
+        publish();
+
+        //repaint only after publishing, so the paint it leads to draws this tick or a later one
+        int oldCameraX = cameraX;
+        int oldCameraY = cameraY;
+        cameraX = GameRenderer.camera(engine.pacman.x, engine.boardWidth, renderer.viewWidth, engine.tileSize);
+        cameraY = GameRenderer.camera(engine.pacman.y, engine.boardHeight, renderer.viewHeight, engine.tileSize);
+        if (engine.mapVersion != mapVersion || engine.gameOver || gameOver
+                || cameraX != oldCameraX || cameraY != oldCameraY) {
+            repaint(); //new maze, game over overlay, a replayed restart or a scroll: everything changes
         }
-        return false;
-    }
-
-    public void resetPositions() {
-        pacman.reset();
-        pacman.velocityX = 0;
-        pacman.velocityY = 0;
-        for (Block ghost : ghosts) {
-            ghost.reset();
-            char newDirection = directions[random.nextInt(4)];
-            ghost.updateDirection(newDirection);
+        else {
+            //old and new bounds of every sprite; eaten pellets always lie under pacman's box
+            dirty.setBounds(engine.pacman.x, engine.pacman.y, 0, 0);
+            GameEngine.Block pacman = engine.pacman;
+            addDirty(pacman.prevX, pacman.prevY, pacman.x, pacman.y, pacman.width);
+            EntityStore ghosts = engine.ghosts;
+            for (int i = 0; i < ghosts.count; i++) {
+                addDirty(ghosts.prevX[i], ghosts.prevY[i], ghosts.x[i], ghosts.y[i], ghosts.size);
+            }
+            dirty.translate(-oldCameraX, -oldCameraY); //board to screen position
+            if (engine.score != score || engine.lives != lives) {
+                //the lives/score line in the top left corner
+                dirty.add(0, 0);
+                dirty.add(renderer.viewWidth / 2, engine.tileSize);
+            }
+            if (renderer.showMetrics) {
+                dirty.add(0, 0);
+                dirty.add(renderer.viewWidth, renderer.metricsBottom);
+            }
+            repaint(dirty);
+        }
+        if (engine.gameOver && autopilot != null) {
+            autopilot.gameEnded(engine);
+            engine.restart();
+            publish();
+            repaint();
         }
     }
 
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        move();
-        repaint();
-        if (gameOver) {
-            gameLoop.stop();
-        }
+    // Grow the dirty area by a sprite's size x size box before and after this tick
+    private void addDirty(int prevX, int prevY, int x, int y, int size) {
+        dirty.add(prevX, prevY);
+        dirty.add(prevX + size, prevY + size);
+        dirty.add(x, y);
+        dirty.add(x + size, y + size);
     }
 
     @Override
     public void keyTyped(KeyEvent e) {}
 
+    // Turns are queued as soon as the key goes down; the engine keeps a turn that is blocked and takes it
+    // at the first tile where it fits
     @Override
-    public void keyPressed(KeyEvent e) {}
+    public void keyPressed(KeyEvent e) {
+        if (replay != null || spectator != null || autopilot != null) return;
+        char direction = directionForKey(e.getKeyCode());
+        if (direction == 0) return;
+        if (direction != heldDirection) {
+            heldDirection = direction;
+            turnPressNanos = System.nanoTime();
+        }
+        inputs.offer(direction);
+    }
 
     @Override
     public void keyReleased(KeyEvent e) {
-        if (gameOver) {
-            loadMap();
-            resetPositions();
-            lives = 3;
-            score = 0;
-            gameOver = false;
-            gameLoop.start();
-        }
-        // System.out.println("KeyEvent: " + e.getKeyCode());
-        if (e.getKeyCode() == KeyEvent.VK_UP) {
-            pacman.updateDirection('U');
+        if (e.getKeyCode() == KeyEvent.VK_F3) { //debug overlay with the frame pacing numbers
+            renderer.showMetrics = !renderer.showMetrics;
+            repaint();
+            return;
         }
-        else if (e.getKeyCode() == KeyEvent.VK_DOWN) {
-            pacman.updateDirection('D');
+        if (directionForKey(e.getKeyCode()) == heldDirection) {
+            heldDirection = 0;
         }
-        else if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-            pacman.updateDirection('L');
-        }
-        else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-            pacman.updateDirection('R');
+        if (front.state.gameOver) { //the game as last drawn; the simulation thread checks again
+            inputs.offer(RESTART);
         }
+    }
 
-        if (pacman.direction == 'U') {
-            pacman.image = pacmanUpImage;
+    // Arrow key to direction (U D L R), or 0 for any other key
+    static char directionForKey(int keyCode) {
+        if (keyCode == KeyEvent.VK_UP) {
+            return 'U';
         }
-        else if (pacman.direction == 'D') {
-            pacman.image = pacmanDownImage;
+        else if (keyCode == KeyEvent.VK_DOWN) {
+            return 'D';
         }
-        else if (pacman.direction == 'L') {
-            pacman.image = pacmanLeftImage;
+        else if (keyCode == KeyEvent.VK_LEFT) {
+            return 'L';
         }
-        else if (pacman.direction == 'R') {
-            pacman.image = pacmanRightImage;
+        else if (keyCode == KeyEvent.VK_RIGHT) {
+            return 'R';
         }
+        return 0;
     }
 }
\ No newline at end of file
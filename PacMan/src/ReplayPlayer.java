@@ -0,0 +1,142 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+// Plays back a file written by ReplayRecorder, either headless at full CPU speed (the default) or in a
+// window at normal game speed. The headless run compares the final state hash with the recorded one.
+// Usage: java ReplayPlayer <file> [--visual]
+public class ReplayPlayer {
+    int version;
+    long seed;
+    GameMap map;
+    int[] eventTicks;
+    char[] eventCodes;
+    int eventCount;
+    int endTick;
+    long endHash;
+
+    private int cursor = 0; //next event to apply
+    char lastInput; //direction applied by the last step(), 0 for none
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: java ReplayPlayer <file> [--visual]");
+            System.exit(2);
+        }
+        ReplayPlayer player = ReplayPlayer.load(args[0]);
+        GameEngine engine = player.newEngine();
+
+        if (args.length > 1 && args[1].equals("--visual")) {
+            SwingUtilities.invokeLater(() -> {
+                JFrame frame = new JFrame("Pac Man replay");
+                frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                frame.setResizable(false);
+                PacMan panel = new PacMan(engine);
+                panel.replay = player;
+                frame.setContentPane(panel);
+                frame.pack();
+                frame.setLocationRelativeTo(null);
+                frame.setVisible(true);
+            });
+            return;
+        }
+
+        long start = System.nanoTime();
+        while (player.step(engine)) {
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("replayed %d ticks in %.3f s (%.0f ticks/s)%n", engine.tick, seconds, engine.tick / seconds);
+        System.out.printf("score %d, lives %d, game over %b%n", engine.score, engine.lives, engine.gameOver);
+        boolean identical = engine.stateHash() == player.endHash;
+        System.out.println(identical ? "final state matches the recording" : "final state DIFFERS from the recording");
+        System.exit(identical ? 0 : 1);
+    }
+
+    static ReplayPlayer load(String path) throws IOException {
+        ReplayPlayer player = new ReplayPlayer();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != ReplayRecorder.MAGIC) throw new IOException(path + " is not a replay file");
+            int version = in.readUnsignedByte();
+            if (version < 1 || version > ReplayRecorder.VERSION) throw new IOException("unsupported replay version " + version);
+            player.version = version;
+            player.seed = in.readLong();
+            if (version == 1) {
+                String[] rows = new String[in.readInt()];
+                for (int r = 0; r < rows.length; r++) {
+                    rows[r] = in.readUTF();
+                }
+                player.map = GameMap.fromRows(rows);
+            } else {
+                int rows = in.readInt();
+                int columns = in.readInt();
+                byte[] tiles = new byte[rows * columns];
+                in.readFully(tiles);
+                player.map = new GameMap(rows, columns, tiles);
+            }
+
+            int[] ticks = new int[64];
+            char[] codes = new char[64];
+            int count = 0;
+            int tick = 0;
+            while (true) {
+                tick += readVarInt(in);
+                byte code = in.readByte();
+                if (code == ReplayRecorder.END) break;
+                if (count == ticks.length) {
+                    ticks = Arrays.copyOf(ticks, count * 2);
+                    codes = Arrays.copyOf(codes, count * 2);
+                }
+                ticks[count] = tick;
+                codes[count] = (char) code;
+                count++;
+            }
+            player.eventTicks = ticks;
+            player.eventCodes = codes;
+            player.eventCount = count;
+            player.endTick = tick;
+            player.endHash = in.readLong();
+        }
+        return player;
+    }
+
+    GameEngine newEngine() {
+        GameEngine engine = new GameEngine(map, seed);
+        engine.bufferTurns = version >= 3; //older recordings were made with blocked turns dropped
+        return engine;
+    }
+
+    // Applies the events recorded for the engine's current tick and steps it once.
+    // Returns false once the recording's end has been reached.
+    boolean step(GameEngine engine) {
+        char input = 0;
+        while (cursor < eventCount && eventTicks[cursor] == engine.tick) {
+            char code = eventCodes[cursor++];
+            if (code == ReplayRecorder.RESTART) {
+                engine.restart();
+            } else {
+                input = code;
+            }
+        }
+        lastInput = input;
+        //a game over only lasts until a restart event, so one that is still up means the recording has ended
+        if (engine.tick >= endTick || engine.gameOver) return false;
+        engine.step(input);
+        return true;
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
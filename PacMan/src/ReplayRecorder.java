@@ -0,0 +1,71 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// Writes a replay file: the engine's seed and map, then one event per applied input.
+// Attach it with engine.recorder = new ReplayRecorder(path, engine) before the first step.
+//
+// File format (big endian, as written by DataOutputStream):
+//   int magic 'PMRP', byte version, long seed, int rows, int columns, rows x columns tile bytes (as in GameMap)
+//   events: varint ticks since the previous event, byte code (U D L R, or N for restart)
+//   end:    varint ticks since the last event, byte 0, long engine.stateHash() at that tick
+public class ReplayRecorder {
+    static final int MAGIC = 0x504D5250; //"PMRP"
+    static final int VERSION = 3; //version 1 stored the map as one UTF string per row; 1 and 2 predate the turn buffer
+    static final char RESTART = 'N';
+    static final byte END = 0;
+
+    private DataOutputStream out;
+    private int lastTick = 0;
+
+    ReplayRecorder(String path, GameEngine engine) {
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(engine.seed);
+            out.writeInt(engine.rowCount);
+            out.writeInt(engine.columnCount);
+            out.write(engine.tiles);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void record(int tick, char code) {
+        if (out == null) return;
+        try {
+            writeVarInt(tick - lastTick);
+            out.writeByte(code);
+            lastTick = tick;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Ends the recording at the engine's current tick; a replay runs up to here and checks the state hash
+    void close(GameEngine engine) {
+        if (out == null) return;
+        try {
+            writeVarInt(engine.tick - lastTick);
+            out.writeByte(END);
+            out.writeLong(engine.stateHash());
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out = null;
+        }
+    }
+
+    // 7 bits per byte, high bit set on all but the last byte: ticks between key presses fit in one or two bytes
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,252 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+// Applies snapshots from a SnapshotEncoder to a spectator GameEngine built from the same map. The spectator
+// engine is never stepped: it only holds the decoded state (with prevX/prevY set to the previous snapshot's
+// positions and eaten pellets appended to eatenTiles), so GameRenderer draws it like a local game.
+// A PacMan panel with its spectator field set pulls a snapshot from source on every tick and acknowledges
+// each decoded one through acknowledge, which a network client would send back to the encoder's side.
+// Deltas only depend on acknowledged snapshots, so a receiver that falls behind may skip to the newest one.
+// Snapshots marked keep are held beyond the history, as is the baseline in use, so deltas keep working
+// however late the acknowledgements arrive.
+//
+// Usage: java SnapshotDecoder [ticks=20000] [seed=1] [ackDelay=3] [--visual]
+// Streams a bot-played game through an encoder and decoder, acknowledging ackDelay ticks late like a
+// remote spectator would, checks the spectator matches the game after every snapshot and prints the
+// bytes sent per tick. --visual shows the spectator's view in a window instead.
+public class SnapshotDecoder {
+    private final SnapshotEncoder.Frame[] frames = new SnapshotEncoder.Frame[SnapshotEncoder.HISTORY];
+    private final SnapshotEncoder.Frame zero = new SnapshotEncoder.Frame(); //the baseline of a keyframe
+    private final SnapshotEncoder.Frame baseline = new SnapshotEncoder.Frame(); //the sender's baseline, as of the last delta
+    private final SnapshotEncoder.Frame kept = new SnapshotEncoder.Frame(); //the last snapshot marked keep
+    private int lastSeq = -1; //newest snapshot applied
+    private int senderEaten = 0; //how many of the sender's eaten pellets have been applied
+
+    Supplier<ByteBuffer> source; //newest snapshot received, null when none has arrived since the last call (used by poll())
+    IntConsumer acknowledge; //receives the sequence number of every decoded snapshot (used by poll())
+
+    SnapshotDecoder() {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new SnapshotEncoder.Frame();
+        }
+    }
+
+    public static void main(String[] args) {
+        int ticks = 20000;
+        long seed = 1;
+        int ackDelay = 3;
+        boolean visual = false;
+        for (String arg : args) {
+            if (arg.startsWith("ticks=")) ticks = Integer.parseInt(arg.substring(6));
+            else if (arg.startsWith("seed=")) seed = Long.parseLong(arg.substring(5));
+            else if (arg.startsWith("ackDelay=")) ackDelay = Integer.parseInt(arg.substring(9));
+            else if (arg.equals("--visual")) visual = true;
+        }
+        GameEngine game = new GameEngine(seed);
+        GameEngine spectator = new GameEngine(seed); //same map; its own ghosts and pellets are overwritten
+        SnapshotEncoder encoder = new SnapshotEncoder();
+        SnapshotDecoder decoder = new SnapshotDecoder();
+        Random input = new Random(~seed);
+
+        if (visual) {
+            decoder.source = () -> {
+                step(game, input);
+                return encoder.encode(game);
+            };
+            decoder.acknowledge = encoder::acknowledge;
+            SwingUtilities.invokeLater(() -> {
+                JFrame frame = new JFrame("Pac Man spectator");
+                frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                frame.setResizable(false);
+                PacMan panel = new PacMan(spectator);
+                panel.spectator = decoder;
+                frame.setContentPane(panel);
+                frame.pack();
+                frame.setLocationRelativeTo(null);
+                frame.setVisible(true);
+            });
+            return;
+        }
+
+        int[] pendingAcks = new int[ackDelay + 1];
+        Arrays.fill(pendingAcks, -1);
+        long bytes = 0;
+        long keyframeBytes = 0;
+        int keyframes = 0;
+        int largestDelta = 0;
+        for (int t = 0; t < ticks; t++) {
+            step(game, input);
+            ByteBuffer snapshot = encoder.encode(game);
+            int size = snapshot.remaining();
+            bytes += size;
+            if (SnapshotEncoder.isKeyframe(snapshot.get(0))) {
+                keyframes++;
+                keyframeBytes += size;
+            } else {
+                largestDelta = Math.max(largestDelta, size);
+            }
+            int seq = decoder.decode(snapshot, spectator);
+            if (!sameState(game, spectator)) {
+                System.out.println("spectator DIFFERS from the game at tick " + game.tick);
+                System.exit(1);
+            }
+            //acknowledgements reach the encoder ackDelay ticks later
+            int slot = t % pendingAcks.length;
+            if (pendingAcks[slot] >= 0) encoder.acknowledge(pendingAcks[slot]);
+            pendingAcks[slot] = seq;
+        }
+        System.out.printf("%d snapshots, %d keyframes (%.0f bytes each), deltas up to %d bytes, %.1f bytes per tick on average%n",
+                ticks, keyframes, keyframes == 0 ? 0.0 : (double) keyframeBytes / keyframes, largestDelta, (double) bytes / ticks);
+        System.out.println("spectator matched the game after every snapshot");
+    }
+
+    // The bot from BatchSimulator, restarting after game over so the stream goes on
+    private static void step(GameEngine game, Random input) {
+        if (game.gameOver) {
+            game.restart();
+        }
+        char direction = 0;
+        if (input.nextInt(8) == 0) {
+            direction = game.directions[input.nextInt(4)];
+        }
+        game.step(direction);
+    }
+
+    private static boolean sameState(GameEngine a, GameEngine b) {
+        if (a.tick != b.tick || a.score != b.score || a.lives != b.lives || a.gameOver != b.gameOver) return false;
+        if (a.pacman.x != b.pacman.x || a.pacman.y != b.pacman.y || a.pacman.direction != b.pacman.direction) return false;
+        if (a.foodRemaining != b.foodRemaining || !Arrays.equals(a.foodBits, b.foodBits)) return false;
+        for (int i = 0; i < a.ghosts.count; i++) {
+            if (a.ghosts.x[i] != b.ghosts.x[i] || a.ghosts.y[i] != b.ghosts.y[i]
+                    || a.ghosts.direction[i] != b.ghosts.direction[i]) return false;
+        }
+        return true;
+    }
+
+    // Applies the newest snapshot from source, if any, and acknowledges it; called once per tick
+    void poll(GameEngine engine) {
+        ByteBuffer snapshot = source.get();
+        if (snapshot == null) return;
+        int seq = decode(snapshot, engine);
+        if (seq >= 0) acknowledge.accept(seq);
+    }
+
+    // Applies one snapshot to the engine and returns its sequence number, the one to acknowledge. Returns -1
+    // and leaves the engine alone for a snapshot older than the last one applied, or a delta whose baseline
+    // is no longer known here; the encoder sends a keyframe once its baseline is too old.
+    int decode(ByteBuffer in, GameEngine engine) {
+        byte kind = in.get();
+        boolean keyframe = SnapshotEncoder.isKeyframe(kind);
+        boolean keep = kind == SnapshotEncoder.KEYFRAME_KEEP || kind == SnapshotEncoder.DELTA_KEEP;
+        if (!keyframe && kind != SnapshotEncoder.DELTA && !keep) throw new IllegalArgumentException("not a snapshot: " + kind);
+        int seq = getVarInt(in);
+        if (seq <= lastSeq) return -1;
+
+        SnapshotEncoder.Frame base = zero;
+        if (!keyframe) {
+            int baseSeq = seq - getVarInt(in);
+            if (baseline.seq != baseSeq) {
+                //the sender moved on to a snapshot acknowledged since, which is still in the history or kept
+                SnapshotEncoder.Frame acknowledged = frames[baseSeq % frames.length];
+                if (acknowledged.seq != baseSeq) acknowledged = kept;
+                if (acknowledged.seq != baseSeq) return -1;
+                baseline.copyFrom(acknowledged);
+            }
+            base = baseline; //never the history slot this snapshot is written to
+        }
+        SnapshotEncoder.Frame frame = frames[seq % frames.length];
+        frame.tick = base.tick + getSigned(in);
+        frame.score = base.score + getSigned(in);
+        frame.lives = base.lives + getSigned(in);
+        frame.gameOver = base.gameOver + getSigned(in);
+        frame.pacmanX = base.pacmanX + getSigned(in);
+        frame.pacmanY = base.pacmanY + getSigned(in);
+        frame.pacmanDirection = in.get();
+
+        EntityStore ghosts = engine.ghosts;
+        int ghostCount = keyframe ? getVarInt(in) : base.ghostCount;
+        if (ghostCount != ghosts.count) throw new IllegalArgumentException("snapshot is for a different map");
+        frame.ensureGhosts(ghostCount);
+        zero.ensureGhosts(ghostCount);
+        ghosts.savePositions();
+        for (int i = 0; i < ghostCount; i++) {
+            int flags = in.get();
+            int x = base.ghostX[i];
+            int y = base.ghostY[i];
+            if ((flags & 4) != 0) x += getSigned(in);
+            if ((flags & 8) != 0) y += getSigned(in);
+            frame.ghostX[i] = x;
+            frame.ghostY[i] = y;
+            ghosts.x[i] = x;
+            ghosts.y[i] = y;
+            ghosts.setDirection(i, flags & 3);
+        }
+        frame.ghostCount = ghostCount;
+
+        if (keyframe) {
+            frame.eatenCount = getVarInt(in);
+            int words = getVarInt(in);
+            if (words != engine.foodBits.length) throw new IllegalArgumentException("snapshot is for a different map");
+            int remaining = 0;
+            for (int w = 0; w < words; w++) {
+                engine.foodBits[w] = in.getLong();
+                remaining += Long.bitCount(engine.foodBits[w]);
+            }
+            engine.foodRemaining = remaining;
+            engine.eatenCount = 0;
+            engine.mapVersion++; //renderers redraw every pellet from foodBits
+            senderEaten = frame.eatenCount;
+        } else {
+            int eaten = getVarInt(in);
+            int tile = 0;
+            for (int k = 0; k < eaten; k++) {
+                tile += getSigned(in);
+                //snapshots newer than the baseline may already have carried this pellet
+                if (base.eatenCount + k < senderEaten) continue;
+                engine.foodBits[tile >> 6] &= ~(1L << tile);
+                engine.foodRemaining--;
+                engine.eatenTiles[engine.eatenCount++] = tile;
+            }
+            frame.eatenCount = base.eatenCount + eaten;
+            senderEaten = Math.max(senderEaten, frame.eatenCount);
+        }
+
+        engine.pacman.savePosition();
+        engine.pacman.x = frame.pacmanX;
+        engine.pacman.y = frame.pacmanY;
+        engine.pacman.setDirection(engine.directions[frame.pacmanDirection & 3]);
+        engine.tick = frame.tick;
+        engine.score = frame.score;
+        engine.lives = frame.lives;
+        engine.gameOver = frame.gameOver != 0;
+
+        frame.seq = seq;
+        lastSeq = seq;
+        if (keep) {
+            kept.copyFrom(frame);
+        }
+        return seq;
+    }
+
+    static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static int getSigned(ByteBuffer in) {
+        int value = getVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,215 @@
+import java.nio.ByteBuffer;
+
+// Serializes a game's visible state (pacman, ghosts, pellets, score, lives) into a reusable ByteBuffer for
+// spectators and remote clients. Every snapshot after the first is a delta against the latest snapshot the
+// receiver has acknowledged: numbers are sent as zigzag varint differences and the pellets as the tiles
+// eaten since then, so a normal tick costs a few bytes per ghost. A keyframe (full state) is sent when
+// nothing usable has been acknowledged yet or the map was reloaded. One encoder per receiver;
+// SnapshotDecoder is the other end.
+//
+// Both ends keep the last HISTORY snapshots, so an acknowledgement that comes back within HISTORY ticks
+// moves the baseline to that snapshot. Acknowledgements can take longer than that (a slow link, or a
+// receiver that falls behind), so one snapshot at a time is also sent marked "keep": both ends hold on to
+// it outside the history until it is acknowledged, or until a later acknowledgement shows the receiver
+// skipped it. Either way a new one is marked. The current baseline is also held outside the history, so it
+// never goes stale, however long the round trip.
+//
+// Snapshot format (big endian):
+//   byte 'K' (keyframe) or 'D' (delta), 'k' or 'd' when marked keep
+//   varint sequence number, delta only: varint sequence - baseline sequence
+//   zigzag varints, each minus the baseline's value (0 for a keyframe): tick, score, lives, game over, pacman x, pacman y
+//   byte pacman direction (index into GameEngine.directions)
+//   keyframe only: varint ghost count
+//   per ghost: byte flags (bits 0-1 direction, bit 2 x changed, bit 3 y changed), then zigzag varint dx and/or dy
+//   keyframe: varint pellets eaten so far, varint word count, the pellet bitmap (GameEngine.foodBits) as longs
+//   delta:    varint pellets eaten since the baseline, per pellet a zigzag varint tile - previous tile (starting at 0)
+public class SnapshotEncoder {
+    static final byte KEYFRAME = 'K';
+    static final byte DELTA = 'D';
+    static final byte KEYFRAME_KEEP = 'k';
+    static final byte DELTA_KEEP = 'd';
+    static final int HISTORY = 32; //recent snapshots kept on both ends
+
+    // The values a snapshot carried, kept so later snapshots can be encoded (or decoded) against it
+    static class Frame {
+        int seq = -1; //-1 for an unused slot
+        int tick;
+        int score;
+        int lives;
+        int gameOver;
+        int mapVersion;
+        int eatenCount; //sender's engine.eatenCount: the pellets eaten on this map up to this snapshot
+        int pacmanX;
+        int pacmanY;
+        int pacmanDirection;
+        int ghostCount;
+        int[] ghostX = new int[0];
+        int[] ghostY = new int[0];
+
+        void ensureGhosts(int count) {
+            if (ghostX.length < count) {
+                ghostX = new int[count];
+                ghostY = new int[count];
+            }
+        }
+
+        void copyFrom(Frame other) {
+            seq = other.seq;
+            tick = other.tick;
+            score = other.score;
+            lives = other.lives;
+            gameOver = other.gameOver;
+            mapVersion = other.mapVersion;
+            eatenCount = other.eatenCount;
+            pacmanX = other.pacmanX;
+            pacmanY = other.pacmanY;
+            pacmanDirection = other.pacmanDirection;
+            ghostCount = other.ghostCount;
+            ensureGhosts(ghostCount);
+            System.arraycopy(other.ghostX, 0, ghostX, 0, ghostCount);
+            System.arraycopy(other.ghostY, 0, ghostY, 0, ghostCount);
+        }
+    }
+
+    static boolean isKeyframe(byte kind) {
+        return kind == KEYFRAME || kind == KEYFRAME_KEEP;
+    }
+
+    private final Frame[] frames = new Frame[HISTORY];
+    private final Frame zero = new Frame(); //the baseline of a keyframe
+    private final Frame baseline = new Frame(); //latest acknowledged snapshot, seq -1 for none
+    private final Frame kept = new Frame(); //snapshot marked keep and not acknowledged yet, seq -1 for none
+    private int nextSeq = 0;
+    private ByteBuffer out = ByteBuffer.allocate(256);
+
+    SnapshotEncoder() {
+        for (int i = 0; i < HISTORY; i++) {
+            frames[i] = new Frame();
+        }
+    }
+
+    // The receiver has decoded snapshot seq, so later snapshots may be sent as deltas against it.
+    // Acknowledgements must arrive in the order the receiver decoded the snapshots.
+    void acknowledge(int seq) {
+        if (seq <= baseline.seq || seq >= nextSeq) return;
+        if (seq == kept.seq) {
+            baseline.copyFrom(kept);
+            kept.seq = -1;
+            return;
+        }
+        if (seq > kept.seq) {
+            kept.seq = -1; //the receiver never decoded the kept snapshot, so mark another one
+        }
+        Frame frame = frames[seq % HISTORY];
+        if (frame.seq == seq) {
+            baseline.copyFrom(frame);
+        }
+    }
+
+    // Encodes the engine's current state as the next snapshot. The returned buffer is ready to be written
+    // and is reused by the next call.
+    ByteBuffer encode(GameEngine engine) {
+        int seq = nextSeq++;
+        Frame base = baseline(engine);
+        Frame frame = frames[seq % HISTORY];
+        capture(frame, seq, engine);
+        boolean keyframe = base == zero;
+        boolean keep = kept.seq < 0;
+        if (keep) {
+            kept.copyFrom(frame);
+        }
+        zero.ensureGhosts(frame.ghostCount);
+
+        int eaten = keyframe ? 0 : frame.eatenCount - base.eatenCount;
+        int worstCase = 64 + frame.ghostCount * 11 + eaten * 5 + (keyframe ? engine.foodBits.length * 8 : 0);
+        if (out.capacity() < worstCase) {
+            out = ByteBuffer.allocate(Math.max(worstCase, out.capacity() * 2));
+        }
+
+        out.clear();
+        out.put(keyframe ? (keep ? KEYFRAME_KEEP : KEYFRAME) : (keep ? DELTA_KEEP : DELTA));
+        putVarInt(out, seq);
+        if (!keyframe) putVarInt(out, seq - base.seq);
+        putSigned(out, frame.tick - base.tick);
+        putSigned(out, frame.score - base.score);
+        putSigned(out, frame.lives - base.lives);
+        putSigned(out, frame.gameOver - base.gameOver);
+        putSigned(out, frame.pacmanX - base.pacmanX);
+        putSigned(out, frame.pacmanY - base.pacmanY);
+        out.put((byte) frame.pacmanDirection);
+
+        if (keyframe) putVarInt(out, frame.ghostCount);
+        EntityStore ghosts = engine.ghosts;
+        for (int i = 0; i < frame.ghostCount; i++) {
+            int dx = frame.ghostX[i] - base.ghostX[i];
+            int dy = frame.ghostY[i] - base.ghostY[i];
+            out.put((byte) (ghosts.direction[i] | (dx != 0 ? 4 : 0) | (dy != 0 ? 8 : 0)));
+            if (dx != 0) putSigned(out, dx);
+            if (dy != 0) putSigned(out, dy);
+        }
+
+        if (keyframe) {
+            putVarInt(out, frame.eatenCount);
+            putVarInt(out, engine.foodBits.length);
+            for (long bits : engine.foodBits) {
+                out.putLong(bits);
+            }
+        } else {
+            putVarInt(out, eaten);
+            int previous = 0;
+            for (int i = base.eatenCount; i < frame.eatenCount; i++) {
+                putSigned(out, engine.eatenTiles[i] - previous);
+                previous = engine.eatenTiles[i];
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    // The acknowledged snapshot to encode against, or zero when a keyframe is needed
+    private Frame baseline(GameEngine engine) {
+        if (baseline.seq < 0 || baseline.mapVersion != engine.mapVersion || baseline.ghostCount != engine.ghosts.count) {
+            return zero;
+        }
+        return baseline;
+    }
+
+    private static void capture(Frame frame, int seq, GameEngine engine) {
+        frame.seq = seq;
+        frame.tick = engine.tick;
+        frame.score = engine.score;
+        frame.lives = engine.lives;
+        frame.gameOver = engine.gameOver ? 1 : 0;
+        frame.mapVersion = engine.mapVersion;
+        frame.eatenCount = engine.eatenCount;
+        frame.pacmanX = engine.pacman.x;
+        frame.pacmanY = engine.pacman.y;
+        frame.pacmanDirection = directionIndex(engine.pacman.direction);
+        EntityStore ghosts = engine.ghosts;
+        frame.ghostCount = ghosts.count;
+        frame.ensureGhosts(ghosts.count);
+        System.arraycopy(ghosts.x, 0, frame.ghostX, 0, ghosts.count);
+        System.arraycopy(ghosts.y, 0, frame.ghostY, 0, ghosts.count);
+    }
+
+    static int directionIndex(char direction) {
+        if (direction == 'D') return 1;
+        if (direction == 'L') return 2;
+        if (direction == 'R') return 3;
+        return 0;
+    }
+
+    // 7 bits per byte, high bit set on all but the last byte (as in ReplayRecorder)
+    static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // Zigzag encoding keeps small negative differences small: 0, -1, 1, -2 become 0, 1, 2, 3
+    static void putSigned(ByteBuffer out, int value) {
+        putVarInt(out, (value << 1) ^ (value >> 31));
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+// Uniform grid over the board with one cell per tile, bucketing the entities of an EntityStore by the tile
+// under their top left corner. Buckets are linked lists threaded through int arrays (cellHead -> next -> ...),
+// so rebuilding it every tick costs a few array writes per entity and allocates nothing, and finding what
+// overlaps a box only looks at the entities in the few cells around it instead of all of them.
+public class SpatialGrid {
+    EntityStore entities;
+    int rows;
+    int columns;
+    int cellSize;
+
+    private int[] cellHead; //per cell (row*columns + col): first entity in it, -1 when empty
+    private int[] next; //per entity: next entity in the same cell, -1 at the end
+    private int[] entityCell; //per entity: its cell, so a rebuild only has to clear the cells in use
+    private int size = 0; //entities in the grid
+
+    SpatialGrid(EntityStore entities, int rows, int columns, int cellSize) {
+        this.entities = entities;
+        this.rows = rows;
+        this.columns = columns;
+        this.cellSize = cellSize;
+        cellHead = new int[rows * columns];
+        Arrays.fill(cellHead, -1);
+        next = new int[Math.max(entities.count, 4)];
+        entityCell = new int[next.length];
+    }
+
+    // Re-buckets every entity at its current position
+    void rebuild() {
+        for (int i = 0; i < size; i++) {
+            cellHead[entityCell[i]] = -1;
+        }
+        int count = entities.count;
+        if (next.length < count) {
+            next = new int[Math.max(count, next.length * 2)];
+            entityCell = new int[next.length];
+        }
+        //inserted from the back, so each bucket lists its entities in index order
+        for (int i = count - 1; i >= 0; i--) {
+            int cell = row(entities.y[i])*columns + column(entities.x[i]);
+            entityCell[i] = cell;
+            next[i] = cellHead[cell];
+            cellHead[cell] = i;
+        }
+        size = count;
+    }
+
+    // Lowest index of an entity overlapping the box, or -1 for none
+    int firstOverlap(int x, int y, int width, int height) {
+        int found = -1;
+        int entitySize = entities.size;
+        //an entity overlaps the box when its corner is within (x - entitySize, x + width) horizontally, same vertically
+        int firstRow = row(y - entitySize + 1);
+        int lastRow = row(y + height - 1);
+        int firstCol = column(x - entitySize + 1);
+        int lastCol = column(x + width - 1);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                for (int i = cellHead[r*columns + c]; i >= 0; i = next[i]) {
+                    if (found >= 0 && i > found) break; //the rest of the bucket has higher indices
+                    if (overlaps(i, x, y, width, height)) {
+                        found = i;
+                        break;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    // Same test as GameEngine.collision()
+    private boolean overlaps(int i, int x, int y, int width, int height) {
+        int size = entities.size;
+        return entities.x[i] < x + width && entities.x[i] + size > x &&
+                entities.y[i] < y + height && entities.y[i] + size > y;
+    }
+
+    //cells of positions off the board are clamped to the edge, which keeps queries exact there too
+    private int column(int x) {
+        return Math.max(0, Math.min(columns - 1, Math.floorDiv(x, cellSize)));
+    }
+
+    private int row(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+    }
+}
@@ -0,0 +1,81 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import javax.imageio.ImageIO;
+
+// Every sprite the game draws, decoded once and converted to images in the screen's native format at the
+// size they are drawn at, so drawing one is a plain (accelerated) blit with no scaling or format conversion.
+// App starts loadAsync() before showing the menu, so the PNGs are decoded on a background thread while
+// the player is still looking at it.
+public class SpriteAtlas {
+    int tileSize;
+    BufferedImage wall;
+    BufferedImage blueGhost;
+    BufferedImage orangeGhost;
+    BufferedImage pinkGhost;
+    BufferedImage redGhost;
+    BufferedImage pacmanUp;
+    BufferedImage pacmanDown;
+    BufferedImage pacmanLeft;
+    BufferedImage pacmanRight;
+    BufferedImage menuPacman; //pacmanRight at menuSize for the menu screen, null when menuSize is 0
+
+    // Loads on a daemon thread; the future completes with the atlas, or exceptionally if an asset is missing
+    static CompletableFuture<SpriteAtlas> loadAsync(GraphicsConfiguration gc, int tileSize, int menuSize) {
+        return CompletableFuture.supplyAsync(() -> load(gc, tileSize, menuSize), task -> {
+            Thread thread = new Thread(task, "PacMan asset loader");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    static SpriteAtlas load(GraphicsConfiguration gc, int tileSize, int menuSize) {
+        SpriteAtlas atlas = new SpriteAtlas();
+        atlas.tileSize = tileSize;
+        atlas.wall = sprite(gc, read("./wall.png"), tileSize);
+        atlas.blueGhost = sprite(gc, read("./blueGhost.png"), tileSize);
+        atlas.orangeGhost = sprite(gc, read("./orangeGhost.png"), tileSize);
+        atlas.pinkGhost = sprite(gc, read("./pinkGhost.png"), tileSize);
+        atlas.redGhost = sprite(gc, read("./redGhost.png"), tileSize);
+        atlas.pacmanUp = sprite(gc, read("./pacmanUp.png"), tileSize);
+        atlas.pacmanDown = sprite(gc, read("./pacmanDown.png"), tileSize);
+        atlas.pacmanLeft = sprite(gc, read("./pacmanLeft.png"), tileSize);
+        BufferedImage pacmanRight = read("./pacmanRight.png");
+        atlas.pacmanRight = sprite(gc, pacmanRight, tileSize);
+        if (menuSize > 0) {
+            atlas.menuPacman = sprite(gc, pacmanRight, menuSize);
+        }
+        return atlas;
+    }
+
+    private static BufferedImage read(String name) {
+        try {
+            BufferedImage image = ImageIO.read(SpriteAtlas.class.getResource(name));
+            if (image == null) throw new IOException("cannot decode " + name);
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BufferedImage sprite(GraphicsConfiguration gc, BufferedImage image, int size) {
+        BufferedImage sprite = compatibleImage(gc, size, size, Transparency.TRANSLUCENT);
+        Graphics2D g = sprite.createGraphics();
+        g.drawImage(image, 0, 0, size, size, null);
+        g.dispose();
+        return sprite;
+    }
+
+    // Image in the format of gc (or the default screen's) when there is one, so blitting it needs no conversion
+    static BufferedImage compatibleImage(GraphicsConfiguration gc, int width, int height, int transparency) {
+        if (gc == null && !GraphicsEnvironment.isHeadless()) {
+            gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        }
+        if (gc != null) {
+            return gc.createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Environment for bots and reinforcement learning: N independent headless games stepped together.
+// reset(seed) starts every game and step(actions) advances all of them by one tick, writing what an
+// agent sees into the preallocated arrays below. Nothing is allocated per step (a game that ends is
+// reset in place), and with threads > 1 the games are split into contiguous ranges stepped by worker
+// threads that park between calls. Results depend only on the seed and the actions, not on threads.
+//
+// Per game g, after reset() and after every step():
+//   positions[g*positionStride ...]   pacman x, y, then x, y of every ghost, in pixels
+//   directions[g*directionStride ...] pacman's then every ghost's direction (0 1 2 3 for U D L R)
+//   pellets[g*pelletWords ...]        the pellet bitmap: bit (row*columns + col) is set while that pellet is left
+//   rewards[g]  score gained by the step
+//   dones[g]    the step ended the game (game over, or maxTicks reached); the next step starts a new game
+// The tile grid never changes, so it is written once to tiles (row*columns + col, GameMap characters).
+// Actions: 0 keeps going, 1 to 4 turn up, down, left, right.
+//
+// Usage: java VectorEnv [games=256] [threads=<cores>] [seconds=10] [map=<file.pmap>]
+// Steps random actions for the given time and reports environment steps per second and per minute.
+public class VectorEnv {
+    static final String ACTIONS = "\0UDLR"; //action number to GameEngine.step() input
+
+    final int games;
+    final int threads;
+    int maxTicks = 20000; //a game still running after this many ticks ends as done
+
+    final GameEngine[] engines;
+    final byte[] tiles;
+    final int rows;
+    final int columns;
+    final int positionStride;
+    final int directionStride;
+    final int pelletWords;
+    final int[] positions;
+    final byte[] directions;
+    final long[] pellets;
+    final int[] rewards;
+    final boolean[] dones;
+
+    private long baseSeed;
+    private final int[] episodes; //games started per slot since reset(), for the next episode's seed
+
+    //hand-off to the worker threads: the caller publishes actions and bumps generation, each worker
+    //steps its range and the last one to finish wakes the caller
+    private final Thread[] workers;
+    private volatile int generation = 0;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Thread caller;
+    private volatile boolean closed = false;
+    private int[] actions;
+    private volatile Throwable failure; //first error thrown while stepping, rethrown by step() on the caller
+
+    VectorEnv(GameMap map, int games, int threads) {
+        this.games = games;
+        this.threads = Math.max(1, Math.min(threads, games));
+        engines = new GameEngine[games];
+        for (int g = 0; g < games; g++) {
+            engines[g] = new GameEngine(map, g);
+        }
+        GameEngine first = engines[0];
+        tiles = first.tiles;
+        rows = first.rowCount;
+        columns = first.columnCount;
+        positionStride = 2 + 2*first.ghosts.count;
+        directionStride = 1 + first.ghosts.count;
+        pelletWords = first.foodBits.length;
+        positions = new int[games * positionStride];
+        directions = new byte[games * directionStride];
+        pellets = new long[games * pelletWords];
+        rewards = new int[games];
+        dones = new boolean[games];
+        episodes = new int[games];
+
+        workers = new Thread[this.threads - 1];
+        for (int w = 0; w < workers.length; w++) {
+            int range = w + 1;
+            workers[w] = new Thread(() -> workerLoop(range), "VectorEnv worker " + range);
+            workers[w].setDaemon(true);
+            workers[w].start();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = 256;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seconds = 10;
+        GameMap map = GameMap.fromRows(GameEngine.DEFAULT_MAP);
+        for (String arg : args) {
+            if (arg.startsWith("games=")) games = Integer.parseInt(arg.substring(6));
+            else if (arg.startsWith("threads=")) threads = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("seconds=")) seconds = Integer.parseInt(arg.substring(8));
+            else if (arg.startsWith("map=")) map = GameMap.load(arg.substring(4));
+        }
+        VectorEnv env = new VectorEnv(map, games, threads);
+        env.reset(1);
+        int[] actions = new int[games];
+        long state = 1; //xorshift, so choosing the actions does not allocate either
+        long[] threadIds = env.threadIds();
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long calls = 0;
+        long episodes = 0;
+        long score = 0;
+        long allocatedBefore = -1;
+        long start = System.nanoTime();
+        long warmupEnd = start + 2_000_000_000L; //allocation is measured after the JIT has settled
+        long end = start + seconds * 1_000_000_000L;
+        long now = start;
+        while (now < end) {
+            for (int g = 0; g < games; g++) {
+                state ^= state << 13;
+                state ^= state >>> 7;
+                state ^= state << 17;
+                actions[g] = (state & 7) == 0 ? 1 + (int) ((state >>> 3) & 3) : 0; //turn about every 8 ticks
+            }
+            if (allocatedBefore < 0 && now >= warmupEnd) {
+                allocatedBefore = allocatedBytes(mx, threadIds);
+            }
+            env.step(actions);
+            for (int g = 0; g < games; g++) {
+                score += env.rewards[g];
+                if (env.dones[g]) episodes++;
+            }
+            calls++;
+            now = System.nanoTime();
+        }
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes(mx, threadIds) - allocatedBefore;
+        env.close();
+
+        double elapsed = (now - start) / 1e9;
+        double stepsPerSecond = calls * games / elapsed;
+        System.out.printf("%d games on %d threads: %d calls, %.0f steps/s (%.1f million steps/min)%n",
+                games, env.threads, calls, stepsPerSecond, stepsPerSecond * 60 / 1e6);
+        System.out.printf("%d episodes ended, mean score %.1f, %s%n", episodes, episodes == 0 ? 0.0 : (double) score / episodes,
+                allocated < 0 ? "run longer than 2 s to measure allocation" : allocated + " bytes allocated after the 2 s warmup");
+    }
+
+    // Starts a new game in every slot; game g's first episode is seeded from seed and g
+    void reset(long seed) {
+        baseSeed = seed;
+        for (int g = 0; g < games; g++) {
+            episodes[g] = 0;
+            startEpisode(g);
+            rewards[g] = 0;
+            dones[g] = false;
+        }
+    }
+
+    // Applies actions[g] to game g and steps every game once. Returns when all observations are written.
+    // Actions outside 0 to 4 throw IllegalArgumentException before any game is stepped. An error while
+    // stepping, on any thread, is thrown here once every thread has finished; the games are then only
+    // partly stepped, so reset() before stepping again.
+    void step(int[] actions) {
+        if (actions.length < games) {
+            throw new IllegalArgumentException(actions.length + " actions for " + games + " games");
+        }
+        for (int g = 0; g < games; g++) {
+            if (actions[g] < 0 || actions[g] >= ACTIONS.length()) {
+                throw new IllegalArgumentException("action " + actions[g] + " for game " + g + " is not 0 to 4");
+            }
+        }
+        this.actions = actions;
+        if (workers.length == 0) {
+            stepRange(0);
+            return;
+        }
+        caller = Thread.currentThread();
+        failure = null;
+        pending.set(workers.length);
+        generation++;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        try {
+            stepRange(0);
+        } catch (Throwable t) {
+            failure = t; //the workers are still stepping their games, so wait for them first
+        }
+        while (pending.get() != 0) {
+            LockSupport.park(this);
+        }
+        Throwable error = failure;
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error instanceof Error) throw (Error) error;
+    }
+
+    // Stops the worker threads; the environment cannot be stepped afterwards
+    void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void workerLoop(int range) {
+        int seen = 0;
+        while (true) {
+            while (generation == seen) {
+                if (closed) return;
+                LockSupport.park(this);
+            }
+            seen = generation;
+            try {
+                stepRange(range);
+            } catch (Throwable t) {
+                failure = t; //step() rethrows it; the worker carries on with the next call
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+
+    private void stepRange(int range) {
+        int from = (int) ((long) games * range / threads);
+        int to = (int) ((long) games * (range + 1) / threads);
+        for (int g = from; g < to; g++) {
+            GameEngine engine = engines[g];
+            if (dones[g]) {
+                startEpisode(g);
+            }
+            int score = engine.score;
+            engine.step(ACTIONS.charAt(actions[g]));
+            rewards[g] = engine.score - score;
+            dones[g] = engine.gameOver || engine.tick >= maxTicks;
+            observe(g);
+        }
+    }
+
+    private void startEpisode(int g) {
+        engines[g].reset(episodeSeed(baseSeed, g, episodes[g]++));
+        observe(g);
+    }
+
+    // Copies game g's entities and pellets into the observation arrays
+    private void observe(int g) {
+        GameEngine engine = engines[g];
+        EntityStore ghosts = engine.ghosts;
+        int p = g * positionStride;
+        positions[p] = engine.pacman.x;
+        positions[p + 1] = engine.pacman.y;
+        int d = g * directionStride;
+        directions[d] = (byte) SnapshotEncoder.directionIndex(engine.pacman.direction);
+        for (int i = 0; i < ghosts.count; i++) {
+            positions[p + 2 + 2*i] = ghosts.x[i];
+            positions[p + 3 + 2*i] = ghosts.y[i];
+            directions[d + 1 + i] = ghosts.direction[i];
+        }
+        System.arraycopy(engine.foodBits, 0, pellets, g * pelletWords, pelletWords);
+    }
+
+    // Seed of a game's n-th episode, mixed (SplitMix64) so neighbouring games and episodes are unrelated
+    static long episodeSeed(long seed, int game, int episode) {
+        long z = seed + game * 0x9E3779B97F4A7C15L + episode * 0xD1B54A32D192ED03L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private long[] threadIds() {
+        long[] ids = new long[workers.length + 1];
+        ids[0] = Thread.currentThread().getId();
+        for (int w = 0; w < workers.length; w++) {
+            ids[w + 1] = workers[w].getId();
+        }
+        return ids;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean mx, long[] threadIds) {
+        long total = 0;
+        for (long id : threadIds) {
+            total += mx.getThreadAllocatedBytes(id);
+        }
+        return total;
+    }
+}